@@ -0,0 +1,256 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBException;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cwru.sepia.agent.planner.actions.MoveStripsAction;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+import edu.cwru.sepia.agent.planner.actions.StripsAction.ActionType;
+
+/**
+ * JMH benchmarks of the planner's hot paths: successor generation, the
+ * heuristics, hashing and comparing states, the move preconditions and
+ * whole A* and HDA* searches. Build the module and run it from the project
+ * directory with
+ *
+ * mvn -f bench/pom.xml package
+ *
+ * java -jar bench/target/benchmarks.jar [JMH options]
+ *
+ * The scenario parameter names SEPIA configuration files, by default every
+ * data/midas*.xml. The states come from the scenario's map through its
+ * StateView, the benchmarks other than the search go round a sample of the
+ * states closest to the start state. The options parameter holds extra
+ * PlannerAgent options separated by spaces, e.g.
+ * -p options="heuristic=nearest". Add -prof gc for the allocation rate.
+ *
+ * The searches also count the states they expand. JMH reports the expanded
+ * and searches counters of each iteration, expanded divided by searches is
+ * the number of states one search expands.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlannerBenchmark {
+
+	// Number of states the benchmarks other than the search go round
+	private static final int SAMPLE_SIZE = 512;
+
+	/**
+	 * The scenario, its start state and the sample of states.
+	 */
+	@State(Scope.Thread)
+	public static class Sample {
+
+		@Param({ "data/midasSmall.xml", "data/midasSmall_BuildPeasant.xml",
+				"data/midasLarge.xml", "data/midasLarge_BuildPeasant.xml" })
+		public String scenario;
+
+		@Param({ "" })
+		public String options;
+
+		PlannerAgent agent;
+		GameState start;
+		GameState[] states;
+		// The same states again, as different objects, so that equals has
+		// to compare them
+		GameState[] copies;
+		MoveStripsAction[] moves;
+		int next;
+
+		@Setup(Level.Trial)
+		public void load() throws JAXBException {
+			Scenario loaded = Scenario.load(new File(scenario));
+			agent = loaded.createAgent(options.trim().isEmpty() ? new String[0]
+					: options.trim().split("\\s+"));
+			start = loaded.createStartState(agent);
+			states = sample(start);
+			copies = sample(loaded.createStartState(agent));
+
+			List<MoveStripsAction> moveList = new ArrayList<MoveStripsAction>();
+			ActionTable table = ActionTable.ground(start, false);
+			for (int id = 0; id < table.size(); id++) {
+				StripsAction action = table.get(id);
+				if (action.getActionType() == ActionType.MOVE) {
+					moveList.add((MoveStripsAction) action);
+				}
+			}
+			moves = moveList.toArray(new MoveStripsAction[moveList.size()]);
+		}
+
+		/**
+		 * @return The index of the next state of the sample
+		 */
+		int nextIndex() {
+			int index = next;
+			next = index + 1 == states.length ? 0 : index + 1;
+			return index;
+		}
+	}
+
+	/**
+	 * The heuristic of the heuristic benchmark.
+	 */
+	@State(Scope.Thread)
+	public static class HeuristicChoice {
+
+		@Param({ "classic", "relaxed", "nearest" })
+		public String heuristic;
+
+		Heuristic estimator;
+
+		@Setup(Level.Trial)
+		public void create() {
+			switch (heuristic) {
+			case "classic":
+				estimator = new ClassicHeuristic();
+				break;
+			case "relaxed":
+				estimator = new RelaxedPlanHeuristic();
+				break;
+			case "nearest":
+				estimator = new NearestResourceHeuristic();
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown heuristic "
+						+ heuristic + ", expected classic, relaxed or nearest");
+			}
+		}
+	}
+
+	/**
+	 * The number of threads of the HDA* search.
+	 */
+	@State(Scope.Thread)
+	public static class Workers {
+
+		@Param({ "4" })
+		public int threads;
+	}
+
+	/**
+	 * Counts the states expanded by the searches of an iteration.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Expansions {
+
+		public long expanded;
+		public long searches;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			expanded = 0;
+			searches = 0;
+		}
+
+		void add(long count) {
+			expanded += count;
+			searches++;
+		}
+	}
+
+	@Benchmark
+	public List<GameState> generateChildren(Sample sample) {
+		return sample.states[sample.nextIndex()].generateChildren();
+	}
+
+	@Benchmark
+	public double heuristic(Sample sample, HeuristicChoice choice) {
+		return choice.estimator.estimate(sample.states[sample.nextIndex()]);
+	}
+
+	@Benchmark
+	public int stateHashCode(Sample sample) {
+		return sample.states[sample.nextIndex()].hashCode();
+	}
+
+	@Benchmark
+	public boolean stateEquals(Sample sample) {
+		int index = sample.nextIndex();
+		return sample.states[index].equals(sample.copies[index]);
+	}
+
+	/**
+	 * Tries every grounded move on one state of the sample.
+	 */
+	@Benchmark
+	public int movePreconditionsMet(Sample sample) {
+		GameState state = sample.states[sample.nextIndex()];
+		int met = 0;
+		for (MoveStripsAction move : sample.moves) {
+			if (move.preconditionsMet(state)) {
+				met++;
+			}
+		}
+		return met;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object astarSearch(Sample sample, Expansions expansions) {
+		Object plan = sample.agent.AstarSearch(sample.start);
+		expansions.add(sample.agent.metrics.getExpanded());
+		return plan;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object hdaSearch(Sample sample, Workers workers,
+			Expansions expansions) {
+		TieBreaker tieBreaker = sample.agent.tieBreaker;
+		HdaStarSearch hda = new HdaStarSearch(workers.threads,
+				() -> new IndexedOpenList(tieBreaker), tieBreaker);
+		Object goal = hda.search(sample.start);
+		expansions.add(hda.getExpandedCount());
+		return goal;
+	}
+
+	/**
+	 * @return Up to SAMPLE_SIZE states in breadth first order from the start
+	 *         state
+	 */
+	private static GameState[] sample(GameState start) {
+		List<GameState> states = new ArrayList<GameState>();
+		Set<GameState> seen = new HashSet<GameState>();
+		Queue<GameState> queue = new ArrayDeque<GameState>();
+		queue.add(start);
+		seen.add(start);
+		while (!queue.isEmpty() && states.size() < SAMPLE_SIZE) {
+			GameState state = queue.poll();
+			states.add(state);
+			for (GameState child : state.generateChildren()) {
+				if (seen.add(child)) {
+					queue.add(child);
+				}
+			}
+		}
+		return states.toArray(new GameState[states.size()]);
+	}
+}
@@ -0,0 +1,132 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.transform.stream.StreamSource;
+
+import edu.cwru.sepia.environment.model.persistence.generated.XmlState;
+import edu.cwru.sepia.environment.model.state.State;
+import edu.cwru.sepia.environment.model.state.XmlStateCreator;
+import edu.cwru.sepia.util.config.xml.XmlAgentParameters;
+import edu.cwru.sepia.util.config.xml.XmlConfiguration;
+
+/**
+ * A scenario read from a SEPIA configuration file such as
+ * data/midasSmall.xml, so the planner can be run without starting SEPIA. The
+ * map named in the configuration is loaded into a StateView and the
+ * arguments of the PlannerAgent player are kept to build agents with.
+ *
+ * A map file such as data/rc_3m5t.xml can be given instead of a
+ * configuration, its arguments then have to be given to load.
+ */
+public class Scenario {
+
+	private final String name;
+	private final State.StateView stateView;
+	private final int playernum;
+	private final String[] arguments;
+
+	private Scenario(String name, State.StateView stateView, int playernum,
+			String[] arguments) {
+		this.name = name;
+		this.stateView = stateView;
+		this.playernum = playernum;
+		this.arguments = arguments;
+	}
+
+	/**
+	 * Loads a configuration, or a map with the given PlannerAgent arguments.
+	 * The map path in a configuration is relative to the working directory,
+	 * as it is when SEPIA runs it.
+	 *
+	 * @param file
+	 *            The configuration or map file
+	 * @param mapArguments
+	 *            The required gold, required wood and build peasants
+	 *            arguments, only used for a map
+	 * @return The scenario
+	 * @throws JAXBException
+	 *             If the file cannot be read
+	 */
+	public static Scenario load(File file, String... mapArguments)
+			throws JAXBException {
+		String name = file.getName().replaceFirst("\\.xml$", "");
+		XmlConfiguration configuration = unmarshal(file, XmlConfiguration.class);
+		if (configuration.getMap() == null) {
+			if (mapArguments.length < 3) {
+				throw new IllegalArgumentException(file
+						+ " is a map, give the required gold, wood and"
+						+ " build peasants arguments with it");
+			}
+			return new Scenario(name + "_" + String.join("_", mapArguments),
+					loadMap(file, 0), 0, mapArguments);
+		}
+
+		for (XmlAgentParameters player : configuration.getPlayer()) {
+			if (PlannerAgent.class.getName().equals(
+					player.getAgentClass().getClassName())) {
+				int playernum = player.getId() == null ? 0 : player.getId();
+				List<String> arguments = player.getAgentClass().getArgument();
+				return new Scenario(name, loadMap(
+						new File(configuration.getMap()), playernum),
+						playernum, arguments.toArray(new String[arguments
+								.size()]));
+			}
+		}
+		throw new IllegalArgumentException(file + " has no PlannerAgent player");
+	}
+
+	private static State.StateView loadMap(File map, int playernum)
+			throws JAXBException {
+		XmlState xmlState = unmarshal(map, XmlState.class);
+		return new XmlStateCreator(xmlState).createState().getView(playernum);
+	}
+
+	private static <T> T unmarshal(File file, Class<T> type)
+			throws JAXBException {
+		JAXBElement<T> element = JAXBContext.newInstance(type)
+				.createUnmarshaller().unmarshal(new StreamSource(file), type);
+		return element.getValue();
+	}
+
+	/**
+	 * @param options
+	 *            Extra key=value options, which replace those of the same
+	 *            key in the configuration
+	 * @return A new PlannerAgent with the arguments of the scenario
+	 */
+	public PlannerAgent createAgent(String... options) {
+		List<String> params = new ArrayList<String>(Arrays.asList(arguments));
+		params.addAll(Arrays.asList(options));
+		return new PlannerAgent(playernum, params.toArray(new String[params
+				.size()]));
+	}
+
+	/**
+	 * @param agent
+	 *            An agent of this scenario, see createAgent
+	 * @return The state the agent's search starts from
+	 */
+	public GameState createStartState(PlannerAgent agent) {
+		return agent.createStartState(stateView);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public State.StateView getStateView() {
+		return stateView;
+	}
+
+	@Override
+	public String toString() {
+		return name + " " + String.join(" ", arguments);
+	}
+}
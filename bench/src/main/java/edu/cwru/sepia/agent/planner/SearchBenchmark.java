@@ -0,0 +1,183 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+/**
+ * Plans every scenario with every search algorithm and heuristic, without
+ * starting SEPIA, and writes one CSV row per run. Build the benchmark module
+ * with mvn -f bench/pom.xml package and run it from the project directory
+ * with
+ *
+ * java -cp bench/target/benchmarks.jar
+ * edu.cwru.sepia.agent.planner.SearchBenchmark [key=value ...] [scenario ...]
+ *
+ * The scenarios are SEPIA configuration files or maps, every data/*.xml if
+ * none are given. A map is planned with the gold, wood and build options,
+ * 1000, 1000 and true by default.
+ *
+ * The algorithms and heuristics options take comma separated lists of the
+ * values of the algorithm and heuristic options of PlannerAgent, all of them
+ * by default. The csv option names the output file, saves/benchmark.csv by
+ * default. A search that takes longer than the timeoutms option, 60000 by
+ * default, is interrupted and gets timeout instead of a plan length. Other
+ * options are passed to every PlannerAgent, e.g. threads=4 or budgetms=500.
+ *
+ * Each row holds the time to build the start state, which includes building
+ * a pattern database, the wall time of the search and the SearchMetrics of
+ * the search with the length and cost of the plan.
+ */
+public class SearchBenchmark {
+
+	private static final String HEADER = "scenario,algorithm,heuristic,setup_ms,"
+			+ "search_ms,expanded,generated,duplicates,reopened,peak_open,"
+			+ "peak_closed,successor_ms,heuristic_ms,hash_ms,plan_length,"
+			+ "plan_cost";
+
+	public static void main(String[] args) {
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		List<File> files = new ArrayList<File>();
+		for (String arg : args) {
+			String[] keyValue = arg.split("=", 2);
+			if (keyValue.length == 2) {
+				options.put(keyValue[0].trim().toLowerCase(), keyValue[1].trim());
+			} else {
+				files.add(new File(arg));
+			}
+		}
+		if (files.isEmpty()) {
+			File[] data = new File("data").listFiles((dir, name) -> name
+					.endsWith(".xml"));
+			if (data == null) {
+				System.err.println("No scenarios given and no data directory"
+						+ " in " + new File("").getAbsolutePath());
+				System.exit(1);
+			}
+			Arrays.sort(data);
+			files.addAll(Arrays.asList(data));
+		}
+
+		String[] algorithms = remove(options, "algorithms", "astar,hda,ara,ida")
+				.split(",");
+		String[] heuristics = remove(options, "heuristics",
+				"classic,relaxed,nearest,pdb").split(",");
+		File csv = new File(remove(options, "csv", "saves/benchmark.csv"));
+		long timeoutMillis = Long.parseLong(remove(options, "timeoutms",
+				"60000"));
+		String[] mapArguments = { remove(options, "gold", "1000"),
+				remove(options, "wood", "1000"), remove(options, "build", "true") };
+		List<String> agentOptions = new ArrayList<String>();
+		for (Map.Entry<String, String> option : options.entrySet()) {
+			agentOptions.add(option.getKey() + "=" + option.getValue());
+		}
+
+		if (csv.getParentFile() != null) {
+			csv.getParentFile().mkdirs();
+		}
+		PrintWriter out = null;
+		try {
+			out = new PrintWriter(csv);
+			out.println(HEADER);
+			for (File file : files) {
+				Scenario scenario;
+				try {
+					scenario = Scenario.load(file, mapArguments);
+				} catch (Exception e) {
+					System.err.println("Skipping " + file + ": " + e);
+					continue;
+				}
+				for (String algorithm : algorithms) {
+					for (String heuristic : heuristics) {
+						List<String> params = new ArrayList<String>(agentOptions);
+						params.add("algorithm=" + algorithm.trim());
+						params.add("heuristic=" + heuristic.trim());
+						String row = run(scenario, algorithm.trim(),
+								heuristic.trim(), params.toArray(new String[params
+										.size()]), timeoutMillis);
+						System.out.println(row);
+						out.println(row);
+						out.flush();
+					}
+				}
+			}
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			System.err.println("Interrupted, the CSV is incomplete");
+		} finally {
+			if (out != null)
+				out.close();
+		}
+		System.out.println("Wrote " + csv.getAbsolutePath());
+	}
+
+	private static String remove(Map<String, String> options, String key,
+			String defaultValue) {
+		String value = options.remove(key);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 * Plans the scenario once.
+	 *
+	 * @return The CSV row of the run
+	 */
+	private static String run(Scenario scenario, String algorithm,
+			String heuristic, String[] options, long timeoutMillis)
+			throws InterruptedException {
+		PlannerAgent agent = scenario.createAgent(options);
+		long start = System.nanoTime();
+		GameState startState = scenario.createStartState(agent);
+		long setupNanos = System.nanoTime() - start;
+
+		// The search runs on its own thread so that it can be interrupted
+		List<Stack<StripsAction>> plans = new ArrayList<Stack<StripsAction>>();
+		Thread search = new Thread(() -> plans.add(agent.search(startState)),
+				"search");
+		start = System.nanoTime();
+		search.start();
+		search.join(timeoutMillis);
+		boolean timedOut = search.isAlive();
+		if (timedOut) {
+			search.interrupt();
+			search.join();
+		}
+		long searchNanos = System.nanoTime() - start;
+
+		// No metrics if the search failed before it started
+		SearchMetrics metrics = agent.metrics == null ? new SearchMetrics()
+				: agent.metrics;
+		StringBuilder row = new StringBuilder();
+		row.append(scenario.getName()).append(',').append(algorithm)
+				.append(',').append(heuristic).append(',')
+				.append(setupNanos / 1000000).append(',')
+				.append(searchNanos / 1000000).append(',')
+				.append(metrics.getExpanded()).append(',')
+				.append(metrics.getGenerated()).append(',')
+				.append(metrics.getDuplicates()).append(',')
+				.append(metrics.getReopened()).append(',')
+				.append(metrics.getPeakOpen()).append(',')
+				.append(metrics.getPeakClosed()).append(',')
+				.append(metrics.getSuccessorNanos() / 1000000).append(',')
+				.append(metrics.getHeuristicNanos() / 1000000).append(',')
+				.append(metrics.getHashNanos() / 1000000).append(',');
+		if (timedOut) {
+			row.append("timeout,");
+		} else if (plans.isEmpty() || plans.get(0) == null) {
+			row.append(',');
+		} else {
+			row.append(metrics.getPlanLength()).append(',')
+					.append(metrics.getPlanCost());
+		}
+		return row.toString();
+	}
+}
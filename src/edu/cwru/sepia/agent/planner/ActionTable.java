@@ -0,0 +1,126 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.cwru.sepia.agent.planner.actions.DepositStripsAction;
+import edu.cwru.sepia.agent.planner.actions.GatherStripsAction;
+import edu.cwru.sepia.agent.planner.actions.HarvestCycleStripsAction;
+import edu.cwru.sepia.agent.planner.actions.MoveStripsAction;
+import edu.cwru.sepia.agent.planner.actions.ProductionStripsAction;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+/**
+ * Every grounded StripsAction of a scenario. The town hall, the resource
+ * positions and the number of peasants that may work together never change
+ * during a search, so the actions are built once from the initial state and
+ * shared by all of its successors. An action's ID is its index in the table.
+ */
+public class ActionTable {
+
+	private final StripsAction[] actions;
+	// Index of the resource each action sends peasants out to, -1 for
+	// actions that do not leave the town hall
+	private final int[] targets;
+
+	private ActionTable(StripsAction[] actions, int[] targets) {
+		this.actions = actions;
+		this.targets = targets;
+	}
+
+	/**
+	 * Grounds the actions of the scenario the given state belongs to. For
+	 * each number of peasants up to the desired peasant count there is a move
+	 * to and from every resource, a gather at every resource and a deposit,
+	 * followed by a single peasant production action. Resources that cannot
+	 * be reached from the town hall get no actions. Each move costs the
+	 * walking distance from the state's DistanceTable.
+	 *
+	 * With harvest cycles the move from the town hall to a resource is
+	 * replaced by a HarvestCycleStripsAction, so peasants that leave the town
+	 * hall empty handed always do a whole cycle in one step. The other
+	 * actions stay for peasants that start out at a resource or carrying
+	 * something.
+	 *
+	 * @param state
+	 *            Any state of the scenario
+	 * @param harvestCycles
+	 *            True if cycles should be grounded instead of moves from the
+	 *            town hall
+	 * @return The action table
+	 */
+	public static ActionTable ground(GameState state, boolean harvestCycles) {
+		Set<Position> resourcePositions = new LinkedHashSet<Position>();
+		for (ResourceState resource : state.getResources()) {
+			resourcePositions.add(resource.getPostion());
+		}
+		Position townHall = state.getTownHallPosition();
+		DistanceTable distances = state.getDistances();
+
+		List<StripsAction> actions = new ArrayList<StripsAction>();
+		List<Integer> targets = new ArrayList<Integer>();
+		for (int i = 1; i <= state.desiredPeasantNumber(); i++) {
+			int index = 0;
+			for (Position resource : resourcePositions) {
+				int target = index++;
+				int distance = distances.moveCost(townHall, resource);
+				if (distance == DistanceTable.UNREACHABLE) {
+					continue;
+				}
+				if (harvestCycles) {
+					actions.add(new HarvestCycleStripsAction(i, townHall,
+							resource, distance));
+				} else {
+					actions.add(new MoveStripsAction(i, townHall, resource,
+							distance));
+				}
+				targets.add(target);
+				actions.add(new MoveStripsAction(i, resource, townHall,
+						distance));
+				targets.add(-1);
+				actions.add(new GatherStripsAction(i, resource));
+				targets.add(-1);
+			}
+			actions.add(new DepositStripsAction(i, townHall));
+			targets.add(-1);
+		}
+		actions.add(new ProductionStripsAction());
+		targets.add(-1);
+
+		int[] targetArray = new int[targets.size()];
+		for (int id = 0; id < targetArray.length; id++) {
+			targetArray[id] = targets.get(id);
+		}
+		return new ActionTable(
+				actions.toArray(new StripsAction[actions.size()]), targetArray);
+	}
+
+	/**
+	 * @param id
+	 *            The ID of the action
+	 * @return The action with the given ID
+	 */
+	public StripsAction get(int id) {
+		return actions[id];
+	}
+
+	/**
+	 * @param id
+	 *            The ID of the action
+	 * @return The index in GameState.getResources() of the resource the
+	 *         action sends peasants out to from the town hall, or -1 if it
+	 *         does not
+	 */
+	public int targetOf(int id) {
+		return targets[id];
+	}
+
+	/**
+	 * @return The number of actions, IDs run from 0 to size() - 1
+	 */
+	public int size() {
+		return actions.length;
+	}
+}
@@ -0,0 +1,200 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Anytime Repairing A* (ARA*). The first pass is a weighted A* search with
+ * f = g + w * h, which finds a plan quickly. Each following pass lowers the
+ * weight and improves the plan, reusing the states that were already
+ * generated instead of starting over. The search stops once a pass with a
+ * weight of 1 completes or when the time budget runs out, whichever comes
+ * first, and returns the cheapest goal found so far.
+ *
+ * The time budget is only checked once a first plan exists, so the search
+ * always returns a plan if one can be reached.
+ */
+public class AraStarSearch {
+
+	private final double initialWeight;
+	private final double weightStep;
+	private final long budgetNanos;
+	private final Comparator<? super GameState> tieBreaker;
+
+	private double weight;
+	private IndexedOpenList openList;
+	private Set<GameState> closedList;
+	// States whose cost was lowered after they were expanded in this pass
+	private Map<GameState, GameState> inconsistent;
+	// The cheapest known instance of every generated state
+	private Map<GameState, GameState> bestKnown;
+	private GameState incumbent;
+	private long deadline;
+	private SearchMetrics metrics;
+
+	/**
+	 * @param initialWeight
+	 *            The heuristic weight of the first pass, at least 1
+	 * @param weightStep
+	 *            How much the weight is lowered after each pass
+	 * @param budgetMillis
+	 *            Wall clock time allowed for improving the first plan
+	 * @param tieBreaker
+	 *            Ordering of states with the same weighted f value
+	 */
+	public AraStarSearch(double initialWeight, double weightStep,
+			long budgetMillis, Comparator<? super GameState> tieBreaker) {
+		if (initialWeight < 1 || weightStep <= 0) {
+			throw new IllegalArgumentException("ARA* needs a weight >= 1 and "
+					+ "a positive weight step, got " + initialWeight + " and "
+					+ weightStep);
+		}
+		this.initialWeight = initialWeight;
+		this.weightStep = weightStep;
+		this.budgetNanos = budgetMillis * 1000000L;
+		this.tieBreaker = tieBreaker;
+	}
+
+	/**
+	 * Runs the search from the given state.
+	 *
+	 * @param startState
+	 *            The state which is being planned from
+	 * @return The cheapest goal state found within the budget or null if no
+	 *         goal is reachable or the calling thread was interrupted before
+	 *         a plan was found
+	 */
+	public GameState search(GameState startState) {
+		long start = System.nanoTime();
+		deadline = start + budgetNanos;
+		weight = initialWeight;
+		openList = new IndexedOpenList(orderFor(weight));
+		closedList = new HashSet<GameState>();
+		inconsistent = new HashMap<GameState, GameState>();
+		bestKnown = new HashMap<GameState, GameState>();
+		incumbent = null;
+		metrics = new SearchMetrics();
+
+		bestKnown.put(startState, startState);
+		if (startState.isGoal()) {
+			return startState;
+		}
+		openList.add(startState);
+
+		GameState reported = null;
+		while (true) {
+			boolean completed = improvePath();
+			if (incumbent != reported) {
+				reported = incumbent;
+				System.out.println("ARA* weight " + weight + " plan cost "
+						+ incumbent.getCost() + " after "
+						+ (System.nanoTime() - start) / 1000000 + " ms");
+			}
+			if (!completed || weight <= 1 || openList.isEmpty()
+					&& inconsistent.isEmpty() || System.nanoTime() > deadline) {
+				return incumbent;
+			}
+			weight = Math.max(1, weight - weightStep);
+			startNextPass();
+		}
+	}
+
+	/**
+	 * @return The number of states expanded over all passes of the last
+	 *         search
+	 */
+	public long getExpandedCount() {
+		return metrics.getExpanded();
+	}
+
+	/**
+	 * @return The counters of all passes of the last search
+	 */
+	public SearchMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Expands states until no state in the open list can lead to a cheaper
+	 * plan at the current weight.
+	 *
+	 * @return false if the pass stopped because the time budget ran out or
+	 *         the thread was interrupted
+	 */
+	private boolean improvePath() {
+		while (!openList.isEmpty()
+				&& (incumbent == null || weighted(openList.peek(), weight) < incumbent
+						.getCost())) {
+			if (incumbent != null && System.nanoTime() > deadline
+					|| Thread.currentThread().isInterrupted()) {
+				return false;
+			}
+			GameState current = openList.poll();
+			closedList.add(current);
+			metrics.closedSize(closedList.size());
+			long start = System.nanoTime();
+			List<GameState> children = current.generateChildren();
+			long generatedAt = System.nanoTime();
+			metrics.expanded(children.size(), generatedAt - start);
+			for (GameState child : children) {
+				GameState known = bestKnown.get(child);
+				if (known != null && known.getCost() <= child.getCost()) {
+					metrics.duplicate();
+					continue;
+				}
+				bestKnown.remove(child);
+				bestKnown.put(child, child);
+				if (child.isGoal()) {
+					// Goals are never expanded, they only bound the search
+					if (incumbent == null
+							|| child.getCost() < incumbent.getCost()) {
+						incumbent = child;
+					}
+				} else if (closedList.contains(child)) {
+					inconsistent.remove(child);
+					inconsistent.put(child, child);
+					metrics.reopened();
+				} else {
+					openList.add(child);
+				}
+			}
+			metrics.hashed(System.nanoTime() - generatedAt);
+			metrics.openSize(openList.size());
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the inconsistent states into the open list, reorders it for the
+	 * new weight and empties the closed list.
+	 */
+	private void startNextPass() {
+		List<GameState> pending = new ArrayList<GameState>(openList.size()
+				+ inconsistent.size());
+		while (!openList.isEmpty()) {
+			pending.add(openList.poll());
+		}
+		pending.addAll(inconsistent.values());
+		inconsistent.clear();
+		closedList.clear();
+		openList = new IndexedOpenList(orderFor(weight));
+		for (GameState state : pending) {
+			openList.add(state);
+		}
+	}
+
+	private Comparator<GameState> orderFor(double w) {
+		Comparator<GameState> weighted = Comparator.comparingDouble(s -> weighted(
+				s, w));
+		return weighted.thenComparing(tieBreaker);
+	}
+
+	private static double weighted(GameState state, double w) {
+		return state.getCost() + w * state.heuristic();
+	}
+}
@@ -0,0 +1,132 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An open list that keeps one bucket per integer f value. Every StripsAction
+ * has an integer cost and the heuristic is a whole number, so f is always an
+ * integer and a state can be filed in its bucket in O(1). Polling walks
+ * forward from the lowest non-empty bucket, which only ever moves back when a
+ * state with a smaller f is added.
+ *
+ * Only states with f up to Integer.MAX_VALUE are taken, so an infinite f,
+ * the estimate of a state no goal can be reached from, is rejected. Such
+ * states are not generated, see GameState.generateChildren.
+ *
+ * Inside a bucket the states are taken either first in, first out or last in,
+ * first out. Replacing a state with a cheaper copy leaves the old entry in its
+ * bucket, it is skipped when it reaches the front.
+ */
+public class BucketOpenList implements OpenList {
+
+	private final List<ArrayDeque<GameState>> buckets;
+	// Maps each state to the instance that is currently live in a bucket
+	private final Map<GameState, GameState> index;
+	private final boolean lifo;
+	private int minBucket;
+
+	/**
+	 * @param lifo
+	 *            true to take the newest state of a bucket first, false to
+	 *            take the oldest first
+	 */
+	public BucketOpenList(boolean lifo) {
+		this.buckets = new ArrayList<ArrayDeque<GameState>>();
+		this.index = new HashMap<GameState, GameState>();
+		this.lifo = lifo;
+		this.minBucket = 0;
+	}
+
+	@Override
+	public boolean add(GameState state) {
+		GameState existing = index.get(state);
+		if (existing != null) {
+			if (existing.getCost() <= state.getCost()) {
+				return false;
+			}
+			// The stale entry stays in its bucket until it is polled
+			index.remove(existing);
+		}
+		index.put(state, state);
+		int f = bucketOf(state);
+		while (buckets.size() <= f) {
+			buckets.add(new ArrayDeque<GameState>());
+		}
+		buckets.get(f).addLast(state);
+		minBucket = Math.min(minBucket, f);
+		return true;
+	}
+
+	@Override
+	public GameState poll() {
+		GameState next = peek();
+		if (next != null) {
+			ArrayDeque<GameState> bucket = buckets.get(minBucket);
+			if (lifo) {
+				bucket.pollLast();
+			} else {
+				bucket.pollFirst();
+			}
+			index.remove(next);
+		}
+		return next;
+	}
+
+	@Override
+	public GameState peek() {
+		if (index.isEmpty()) {
+			return null;
+		}
+		while (minBucket < buckets.size()) {
+			ArrayDeque<GameState> bucket = buckets.get(minBucket);
+			while (!bucket.isEmpty()) {
+				GameState state = lifo ? bucket.peekLast() : bucket.peekFirst();
+				if (index.get(state) == state) {
+					return state;
+				}
+				// Discard entries that were replaced by a cheaper copy
+				if (lifo) {
+					bucket.pollLast();
+				} else {
+					bucket.pollFirst();
+				}
+			}
+			minBucket++;
+		}
+		return null;
+	}
+
+	@Override
+	public GameState get(GameState state) {
+		return index.get(state);
+	}
+
+	@Override
+	public boolean contains(GameState state) {
+		return index.containsKey(state);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return index.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return index.size();
+	}
+
+	private int bucketOf(GameState state) {
+		double f = state.getFValue();
+		if (f < 0 || f > Integer.MAX_VALUE || f != Math.rint(f)) {
+			throw new IllegalArgumentException(
+					"Bucket open list needs non-negative integer f values, got "
+							+ f);
+		}
+		return (int) f;
+	}
+}
@@ -0,0 +1,61 @@
+package edu.cwru.sepia.agent.planner;
+
+import edu.cwru.sepia.environment.model.state.ResourceType;
+
+/**
+ * The hand tuned heuristic the planner has always used. It is not admissible,
+ * it trades plan cost for a much smaller search.
+ *
+ * It figures out how many cycles of move-gather-move-deposit are needed to
+ * get the remaining required resources and then multiplies this by the cost
+ * of one cycle. That is 15, which equates to a round trip of 13 moves, or
+ * more if the walk to the nearest resource of the type and back is longer
+ * than that on this map. If the previous action was one that was completed by
+ * multiple peasants, a bonus is applied because it is assumed that these
+ * peasants will be able to work together for the following moves. Building a
+ * new peasant is weighted the same as 4 gold cycles, as long as the current
+ * number of peasants is not the same as the optimal number of peasants.
+ */
+public class ClassicHeuristic implements Heuristic {
+
+	@Override
+	public double estimate(GameState state) {
+		int hVal = 0;
+		// The initial state has no previous action, treat it as one peasant
+		int groupSize = state.getPreviousAction() == null ? 1 : state
+				.getPreviousAction().getPeasantCount();
+
+		int goldCycle = cycleCost(state, ResourceType.GOLD);
+		int woodCycle = cycleCost(state, ResourceType.WOOD);
+
+		// Same weight per peasant as 4 gold runs
+		hVal += (state.desiredPeasantNumber() - state.getPeasants().size())
+				* goldCycle * 4;
+
+		// Number of times a peasant must complete a move-gather-move-deposit
+		// cycle to gather the remaining gold. Assume that the peasants from the
+		// previous action will work in harmony.
+		int goldRuns = Math.max(0,
+				state.getRequiredGold() - state.getCurrentGold())
+				/ (100 * Math.max(1, groupSize));
+
+		// Number of times a peasant must complete a move-gather-move-deposit
+		// cycle to gather the remaining wood. Assume that the peasants from the
+		// previous action will work in harmony.
+		int woodRuns = Math.max(0,
+				state.getRequiredWood() - state.getCurrentWood())
+				/ (100 * Math.max(1, groupSize));
+
+		hVal += goldCycle * goldRuns + woodCycle * woodRuns;
+
+		return hVal;
+	}
+
+	/**
+	 * @return The cost of walking from the town hall to the nearest resource
+	 *         of the type and back, gathering and depositing, but at least 15
+	 */
+	private static int cycleCost(GameState state, ResourceType type) {
+		return Math.max(15, 2 * state.getDistances().nearest(type) + 2);
+	}
+}
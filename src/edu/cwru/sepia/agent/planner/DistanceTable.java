@@ -0,0 +1,198 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import edu.cwru.sepia.environment.model.state.ResourceType;
+import edu.cwru.sepia.util.Direction;
+
+/**
+ * Walking distances from the town hall to every cell of the map, found with a
+ * breadth first search that goes around resources, buildings and other units
+ * that cannot be walked through. Peasants move in all eight directions, so on
+ * open ground a distance is the same as the Chebyshev distance. The map never
+ * changes during a search, so the table is built once from the initial state
+ * and shared by all of its successors.
+ *
+ * Every move goes between the town hall and a resource and a path can be
+ * walked in both directions, so the one table gives the cost of every move.
+ */
+public class DistanceTable {
+
+	/**
+	 * Distance of a cell that cannot be reached from the town hall.
+	 */
+	public static final int UNREACHABLE = -1;
+
+	private final int xExtent;
+	private final int yExtent;
+	private final Position townHall;
+	// Distance of every cell from the town hall, indexed x * yExtent + y
+	private final int[] cells;
+	private final int nearestGold;
+	private final int nearestWood;
+	// Indices of the reachable resources of each type, nearest first
+	private final int[] goldByDistance;
+	private final int[] woodByDistance;
+
+	/**
+	 * @param xExtent
+	 *            X dimension size of the map
+	 * @param yExtent
+	 *            Y dimension size of the map
+	 * @param blocked
+	 *            The cells that cannot be walked through, indexed x * yExtent
+	 *            + y
+	 * @param townHall
+	 *            The position of the town hall
+	 * @param resources
+	 *            Every resource of the scenario
+	 */
+	public DistanceTable(int xExtent, int yExtent, boolean[] blocked,
+			Position townHall, List<ResourceState> resources) {
+		this.xExtent = xExtent;
+		this.yExtent = yExtent;
+		this.townHall = townHall;
+		this.cells = search(blocked);
+
+		List<Integer> gold = new ArrayList<Integer>();
+		List<Integer> wood = new ArrayList<Integer>();
+		for (int i = 0; i < resources.size(); i++) {
+			ResourceState resource = resources.get(i);
+			if (fromTownHall(resource.getPostion()) == UNREACHABLE) {
+				continue;
+			}
+			if (resource.getType() == ResourceType.GOLD) {
+				gold.add(i);
+			} else {
+				wood.add(i);
+			}
+		}
+		this.goldByDistance = sortByDistance(gold, resources);
+		this.woodByDistance = sortByDistance(wood, resources);
+		this.nearestGold = goldByDistance.length == 0 ? UNREACHABLE
+				: fromTownHall(resources.get(goldByDistance[0]).getPostion());
+		this.nearestWood = woodByDistance.length == 0 ? UNREACHABLE
+				: fromTownHall(resources.get(woodByDistance[0]).getPostion());
+	}
+
+	/**
+	 * Builds the table for a map where only the resources and the town hall
+	 * are in the way.
+	 */
+	public static DistanceTable withoutUnits(int xExtent, int yExtent,
+			Position townHall, List<ResourceState> resources) {
+		boolean[] blocked = new boolean[xExtent * yExtent];
+		for (ResourceState resource : resources) {
+			Position position = resource.getPostion();
+			if (position.inBounds(xExtent, yExtent)) {
+				blocked[position.x * yExtent + position.y] = true;
+			}
+		}
+		if (townHall.inBounds(xExtent, yExtent)) {
+			blocked[townHall.x * yExtent + townHall.y] = true;
+		}
+		return new DistanceTable(xExtent, yExtent, blocked, townHall, resources);
+	}
+
+	/**
+	 * @param position
+	 *            Any position, it does not have to be in bounds
+	 * @return The number of steps from the town hall to the position, or
+	 *         UNREACHABLE
+	 */
+	public int fromTownHall(Position position) {
+		if (!position.inBounds(xExtent, yExtent)) {
+			return UNREACHABLE;
+		}
+		return cells[position.x * yExtent + position.y];
+	}
+
+	/**
+	 * @param start
+	 *            Where the move starts
+	 * @param finish
+	 *            Where the move ends
+	 * @return The number of steps of a move between the town hall and a
+	 *         resource, or UNREACHABLE if there is no path
+	 */
+	public int moveCost(Position start, Position finish) {
+		if (start.equals(townHall)) {
+			return fromTownHall(finish);
+		} else if (finish.equals(townHall)) {
+			return fromTownHall(start);
+		}
+		throw new IllegalArgumentException("Moves go to or from the town hall, "
+				+ "got " + start + " to " + finish);
+	}
+
+	/**
+	 * @param type
+	 *            The type of resource
+	 * @return The distance from the town hall to the nearest reachable
+	 *         resource of the type, or UNREACHABLE if there is none
+	 */
+	public int nearest(ResourceType type) {
+		return type == ResourceType.GOLD ? nearestGold : nearestWood;
+	}
+
+	/**
+	 * @param type
+	 *            The type of resource
+	 * @return The indices in GameState.getResources() of the reachable
+	 *         resources of the type, nearest to the town hall first. The
+	 *         array is shared and must not be changed.
+	 */
+	public int[] byDistance(ResourceType type) {
+		return type == ResourceType.GOLD ? goldByDistance : woodByDistance;
+	}
+
+	private int[] sortByDistance(List<Integer> indices,
+			List<ResourceState> resources) {
+		indices.sort(Comparator.comparingInt(i -> fromTownHall(resources.get(i)
+				.getPostion())));
+		int[] sorted = new int[indices.size()];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = indices.get(i);
+		}
+		return sorted;
+	}
+
+	/**
+	 * Breadth first search from the town hall. Blocked cells get a distance
+	 * when they are next to a reached cell, since a move can end next to
+	 * them, but the search does not continue through them.
+	 */
+	private int[] search(boolean[] blocked) {
+		int[] distances = new int[xExtent * yExtent];
+		Arrays.fill(distances, UNREACHABLE);
+		if (!townHall.inBounds(xExtent, yExtent)) {
+			return distances;
+		}
+		ArrayDeque<Position> queue = new ArrayDeque<Position>();
+		distances[townHall.x * yExtent + townHall.y] = 0;
+		queue.add(townHall);
+		while (!queue.isEmpty()) {
+			Position current = queue.poll();
+			int next = distances[current.x * yExtent + current.y] + 1;
+			for (Direction direction : Direction.values()) {
+				Position neighbor = current.move(direction);
+				if (!neighbor.inBounds(xExtent, yExtent)) {
+					continue;
+				}
+				int cell = neighbor.x * yExtent + neighbor.y;
+				if (distances[cell] != UNREACHABLE) {
+					continue;
+				}
+				distances[cell] = next;
+				if (!blocked[cell]) {
+					queue.add(neighbor);
+				}
+			}
+		}
+		return distances;
+	}
+}
@@ -1,15 +1,14 @@
 package edu.cwru.sepia.agent.planner;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import edu.cwru.sepia.agent.planner.actions.DepositStripsAction;
 import edu.cwru.sepia.agent.planner.actions.GatherStripsAction;
+import edu.cwru.sepia.agent.planner.actions.HarvestCycleStripsAction;
 import edu.cwru.sepia.agent.planner.actions.MoveStripsAction;
 import edu.cwru.sepia.agent.planner.actions.ProductionStripsAction;
 import edu.cwru.sepia.agent.planner.actions.StripsAction;
@@ -46,18 +45,45 @@ public class GameState implements Comparable<GameState> {
 	private final int requiredGold;
 	private final int requiredWood;
 	private final boolean buildPeasants;
-	private final Map<Integer, PeasantState> peasantStates;
-	private final List<ResourceState> trees;
-	private final List<ResourceState> gold;
+	// Successors share every peasant and resource they do not change
+	private final PersistentVector<PeasantState> peasants;
+	// Gold mines first, then trees, in the order of the resource indices
+	private final PersistentVector<ResourceState> resources;
 	private Position townHall;
 	private final int currentWood;
 	private final int currentGold;
 	private final StripsAction previousAction;
 	private final double cost;
+	private final double heuristic;
+	private final double fValue;
 	private final int xExtent;
 	private final int yExtent;
 	private final GameState parent;
 	private final int townHallID;
+	// Compact copy of the stock and the peasants, see encode()
+	private final long[] encoding;
+	// Zobrist hash of the encoding and the resource amounts, updated
+	// incrementally by applyAction
+	private final long zobristHash;
+	// The part of zobristHash that comes from the resource amounts
+	private final long resourceHash;
+	// Grounded actions of the scenario, shared with every successor
+	private final ActionTable actionTable;
+	// Resource index of every map cell, shared with every successor
+	private final ResourceGrid resourceGrid;
+	// Walking distances from the town hall, shared with every successor
+	private final DistanceTable distances;
+	// Estimates the remaining cost, shared with every successor
+	private final Heuristic heuristicFunction;
+	// Bit i is set while resource i still has something left
+	private final long[] nonEmptyResources;
+	// Slots in distances.byDistance of the nearest gold mine and the nearest
+	// tree that still have something left, advanced when a gather empties one
+	private final int[] nearestNonEmpty;
+	// Bit i is set if resource i is dominated, see findDominatedResources.
+	// Found when the state is first expanded and shared with the successors
+	// that do not change the resources
+	private long[] dominatedResources;
 
 	public GameState(int playernum, int requiredGold, int requiredWood,
 			boolean buildPeasants, Map<Integer, PeasantState> peasantStates,
@@ -65,13 +91,33 @@ public class GameState implements Comparable<GameState> {
 			Position townHall, int currentWood, int currentGold,
 			StripsAction previousAction, double cost, int xExtent, int yExtent,
 			GameState parent, int townHallID) {
+		this(playernum, requiredGold, requiredWood, buildPeasants,
+				PersistentVector.of(peasantStates.values()), resourceVector(
+						gold, trees), townHall, currentWood, currentGold,
+				previousAction, cost, xExtent, yExtent, parent, townHallID,
+				null, 0, 0, null, null, null);
+	}
+
+	/**
+	 * Builds a successor state. If encoding, nonEmptyResources or
+	 * nearestNonEmpty is null it is computed from the other arguments,
+	 * otherwise it must describe them. The same goes for dominatedResources,
+	 * which is only computed once the state is expanded.
+	 */
+	private GameState(int playernum, int requiredGold, int requiredWood,
+			boolean buildPeasants, PersistentVector<PeasantState> peasants,
+			PersistentVector<ResourceState> resources, Position townHall,
+			int currentWood, int currentGold, StripsAction previousAction,
+			double cost, int xExtent, int yExtent, GameState parent,
+			int townHallID, long[] encoding, long zobristHash,
+			long resourceHash, long[] nonEmptyResources, int[] nearestNonEmpty,
+			long[] dominatedResources) {
 		this.playernum = playernum;
 		this.requiredGold = requiredGold;
 		this.requiredWood = requiredWood;
 		this.buildPeasants = buildPeasants;
-		this.peasantStates = peasantStates;
-		this.trees = new ArrayList<ResourceState>(trees);
-		this.gold = new ArrayList<ResourceState>(gold);
+		this.peasants = peasants;
+		this.resources = resources;
 		this.townHall = townHall;
 		this.currentWood = currentWood;
 		this.currentGold = currentGold;
@@ -81,6 +127,61 @@ public class GameState implements Comparable<GameState> {
 		this.yExtent = yExtent;
 		this.parent = parent;
 		this.townHallID = townHallID;
+		if (encoding == null) {
+			this.encoding = encode();
+			this.resourceHash = hashResources(resources, currentGold,
+					currentWood, peasants.size());
+			this.zobristHash = hashOf(this.encoding) + this.resourceHash;
+		} else {
+			this.encoding = encoding;
+			this.zobristHash = zobristHash;
+			this.resourceHash = resourceHash;
+		}
+		if (parent == null) {
+			this.resourceGrid = new ResourceGrid(xExtent, yExtent,
+					getResources());
+			this.distances = DistanceTable.withoutUnits(xExtent, yExtent,
+					townHall, getResources());
+			this.actionTable = ActionTable.ground(this, false);
+			this.heuristicFunction = new ClassicHeuristic();
+		} else {
+			this.resourceGrid = parent.resourceGrid;
+			this.distances = parent.distances;
+			this.actionTable = parent.actionTable;
+			this.heuristicFunction = parent.heuristicFunction;
+		}
+		this.nonEmptyResources = nonEmptyResources == null ? findNonEmptyResources()
+				: nonEmptyResources;
+		this.nearestNonEmpty = nearestNonEmpty == null ? findNearestNonEmpty()
+				: nearestNonEmpty;
+		this.dominatedResources = dominatedResources;
+		this.heuristic = heuristicFunction.estimate(this);
+		this.fValue = cost + heuristic;
+	}
+
+	/**
+	 * Construct a GameState from a stateview object, estimated with the
+	 * ClassicHeuristic.
+	 *
+	 * @see #GameState(State.StateView, int, int, int, boolean, Heuristic)
+	 */
+	public GameState(State.StateView state, int playernum, int requiredGold,
+			int requiredWood, boolean buildPeasants) {
+		this(state, playernum, requiredGold, requiredWood, buildPeasants,
+				new ClassicHeuristic());
+	}
+
+	/**
+	 * Construct a GameState from a stateview object, searched without harvest
+	 * cycles.
+	 *
+	 * @see #GameState(State.StateView, int, int, int, boolean, Heuristic,
+	 *      boolean)
+	 */
+	public GameState(State.StateView state, int playernum, int requiredGold,
+			int requiredWood, boolean buildPeasants, Heuristic heuristicFunction) {
+		this(state, playernum, requiredGold, requiredWood, buildPeasants,
+				heuristicFunction, false);
 	}
 
 	/**
@@ -98,16 +199,22 @@ public class GameState implements Comparable<GameState> {
 	 *            The goal amount of wood (e.g. 200 for the small scenario)
 	 * @param buildPeasants
 	 *            True if the BuildPeasant action should be considered
+	 * @param heuristicFunction
+	 *            The heuristic used for this state and all of its successors
+	 * @param harvestCycles
+	 *            True if whole harvest cycles should be searched instead of
+	 *            moves from the town hall, see ActionTable.ground
 	 */
 	public GameState(State.StateView state, int playernum, int requiredGold,
-			int requiredWood, boolean buildPeasants) {
+			int requiredWood, boolean buildPeasants,
+			Heuristic heuristicFunction, boolean harvestCycles) {
 		this.playernum = playernum;
 		this.requiredGold = requiredGold;
 		this.requiredWood = requiredWood;
 		this.buildPeasants = buildPeasants;
-		this.peasantStates = new HashMap<Integer, PeasantState>();
-		this.trees = new ArrayList<ResourceState>();
-		this.gold = new ArrayList<ResourceState>();
+		List<PeasantState> peasantList = new ArrayList<PeasantState>();
+		List<ResourceState> trees = new ArrayList<ResourceState>();
+		List<ResourceState> gold = new ArrayList<ResourceState>();
 		for (ResourceView resource : state.getAllResourceNodes()) {
 			if (resource.getType().equals(Type.GOLD_MINE)) {
 				gold.add(new ResourceState(resource));
@@ -124,14 +231,13 @@ public class GameState implements Comparable<GameState> {
 				tHallID = unit.getID();
 			}
 			if (unit.getTemplateView().getName().equals("Peasant")) {
-				peasantStates
-				.put(unit.getID(),
-						new PeasantState(unit.getID(), unit
-								.getCargoAmount(), unit.getCargoType(),
-								new Position(unit.getXPosition(), unit
-										.getYPosition())));
+				peasantList.add(new PeasantState(unit.getID(), unit
+						.getCargoAmount(), unit.getCargoType(), new Position(
+						unit.getXPosition(), unit.getYPosition())));
 			}
 		}
+		this.peasants = PersistentVector.of(peasantList);
+		this.resources = resourceVector(gold, trees);
 		this.townHallID = tHallID;
 		this.currentGold = state
 				.getResourceAmount(playernum, ResourceType.GOLD);
@@ -142,6 +248,19 @@ public class GameState implements Comparable<GameState> {
 		this.xExtent = state.getXExtent();
 		this.yExtent = state.getYExtent();
 		this.parent = null;
+		this.encoding = encode();
+		this.resourceHash = hashResources(resources, currentGold, currentWood,
+				peasants.size());
+		this.zobristHash = hashOf(encoding) + resourceHash;
+		this.resourceGrid = new ResourceGrid(xExtent, yExtent, getResources());
+		this.distances = new DistanceTable(xExtent, yExtent,
+				findBlockedCells(state), townHall, getResources());
+		this.actionTable = ActionTable.ground(this, harvestCycles);
+		this.nonEmptyResources = findNonEmptyResources();
+		this.nearestNonEmpty = findNearestNonEmpty();
+		this.heuristicFunction = heuristicFunction;
+		this.heuristic = heuristicFunction.estimate(this);
+		this.fValue = cost + heuristic;
 	}
 
 	/**
@@ -163,39 +282,38 @@ public class GameState implements Comparable<GameState> {
 	 * planning. Generate all of the possible successor states and their
 	 * associated actions in this method.
 	 *
+	 * Peasants are not sent out to dominated resources, see
+	 * findDominatedResources. Children the heuristic knows cannot reach a
+	 * goal, with an infinite estimate, are left out.
+	 *
 	 * @return A list of the possible successor states and their associated
 	 *         actions
 	 */
 	public List<GameState> generateChildren() {
-		List<StripsAction> actions = new ArrayList<StripsAction>();
-		// For each possible peasant count
-		for (int i = 1; i <= optimalPeasantCount(); i++) {
-			// Create a movement to/from and gather for each resource
-			for (Position resource : getAllResourcePositions()) {
-				actions.add(new MoveStripsAction(i, townHall, resource));
-				actions.add(new MoveStripsAction(i, resource, townHall));
-				actions.add(new GatherStripsAction(i, resource));
-			}
-			// Have i peasants deposit at the townhall
-			actions.add(new DepositStripsAction(i, townHall));
-		}
-		// Build a peasant
-		actions.add(new ProductionStripsAction());
 		List<GameState> children = new ArrayList<GameState>();
+		if (dominatedResources == null) {
+			dominatedResources = findDominatedResources();
+		}
+		long[] dominated = dominatedResources;
 		// Filter actions that have not met preonditions then create children
 		// states
-		actions.stream().filter((a) -> a.preconditionsMet(this))
-		.forEach((a) -> children.add(a.apply(this)));
+		for (int id = 0; id < actionTable.size(); id++) {
+			int target = actionTable.targetOf(id);
+			if (target >= 0 && isSet(dominated, target)) {
+				continue;
+			}
+			StripsAction action = actionTable.get(id);
+			long slots = action.bind(this);
+			if (slots != StripsAction.UNBOUND) {
+				GameState child = applyAction(action, slots);
+				if (child.heuristic != Double.POSITIVE_INFINITY) {
+					children.add(child);
+				}
+			}
+		}
 		return children;
 	}
 
-	private Collection<Position> getAllResourcePositions() {
-		Set<Position> positions = new HashSet<Position>();
-		trees.stream().forEach(t -> positions.add(t.getPostion()));
-		gold.stream().forEach(t -> positions.add(t.getPostion()));
-		return positions;
-	}
-
 	/**
 	 * Assuming that move, gather, deposit and creating a peasant all take one
 	 * action, it will take one peasant 36 actions to gather 900 resources.
@@ -236,40 +354,21 @@ public class GameState implements Comparable<GameState> {
 	 * computing a consistent heuristic that is even better, but not strictly
 	 * necessary.
 	 *
-	 * This function figures out how many cycles of move-gather-move-deposit are
-	 * needed to get the remaining required resources and then multiplies this
-	 * by 15, which equates to a round trip of 13 moves. If the previous action
-	 * was one that was completed by multiple peasants, a bonus is applied
-	 * because it is assumed that these peasants will be able to work together
-	 * for the following moves. Building a new peasant is weighted the same as 4
-	 * gold runs, as long as the current number of peasants is not the same as
-	 * the optimal number of peasants.
+	 * The estimate comes from the Heuristic the initial state was built with,
+	 * ClassicHeuristic unless another one was chosen.
 	 *
-	 * @return The value estimated remaining cost to reach a goal state from
-	 *         this state.
+	 * @return The estimated remaining cost to reach a goal state, computed
+	 *         when this state was built.
 	 */
 	public double heuristic() {
-		int hVal = 0;
-
-		// Same weight per peasant as 4 gold runs
-		hVal += (desiredPeasantNumber() - peasantStates.size()) * 15 * 4;
-
-		// Number of times a peasant must complete a move-gather-move-deposit
-		// cycle to gather the remaining gold. Assume that the peasants from the
-		// previous action will work in harmony.
-		int goldRuns = Math.max(0, requiredGold - currentGold)
-				/ (100 * Math.max(1, previousAction.getPeasantCount()));
-
-		// Number of times a peasant must complete a move-gather-move-deposit
-		// cycle to gather the remaining wood. Assume that the peasants from the
-		// previous action will work in harmony.
-		int woodRuns = Math.max(0, requiredWood - currentWood)
-				/ (100 * Math.max(1, previousAction.getPeasantCount()));
-
-		// Estimate ~7 steps to be the distance from a resource
-		hVal += 15 * (goldRuns + woodRuns);
+		return heuristic;
+	}
 
-		return hVal;
+	/**
+	 * @return The cost to reach this state plus the heuristic estimate.
+	 */
+	public double getFValue() {
+		return fValue;
 	}
 
 	public StripsAction getPreviousAction() {
@@ -300,11 +399,19 @@ public class GameState implements Comparable<GameState> {
 	 */
 	@Override
 	public int compareTo(GameState o) {
-		Double thisVal = getCost() + heuristic();
-		Double otherVal = o.getCost() + o.heuristic();
-		return thisVal.compareTo(otherVal);
+		return Double.compare(fValue, o.fValue);
 	}
 
+	/**
+	 * Two states are equal when they have the same stock, the same amount
+	 * left in every resource and the same peasants, where peasants are only
+	 * told apart by their cargo and position and not by their ID. States that
+	 * only differ by which peasant is where are therefore the same state. The
+	 * plan does not name peasants, PEAgent picks them when it executes each
+	 * action, so the IDs of whichever copy of the state the search keeps can
+	 * be used. Resources are compared through their persistent vectors, which
+	 * skips everything the two states share.
+	 */
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
@@ -314,31 +421,390 @@ public class GameState implements Comparable<GameState> {
 		if (getClass() != obj.getClass())
 			return false;
 		GameState other = (GameState) obj;
-		if (currentGold != other.currentGold)
-			return false;
-		if (currentWood != other.currentWood)
-			return false;
-		if (peasantStates == null) {
-			if (other.peasantStates != null)
-				return false;
-		} else if (!peasantStates.equals(other.peasantStates))
-			return false;
-		return true;
+		return zobristHash == other.zobristHash
+				&& Arrays.equals(encoding, other.encoding)
+				&& sameResources(other);
+	}
+
+	/**
+	 * Compares the resource amounts, as far as they are below the gather
+	 * limits. Only called once the encodings are equal, so both states have
+	 * the same stock and number of peasants and with them the same limits.
+	 */
+	private boolean sameResources(GameState other) {
+		int goldLimit = gatherLimit(ResourceType.GOLD, currentGold,
+				currentWood, peasants.size());
+		int woodLimit = gatherLimit(ResourceType.WOOD, currentGold,
+				currentWood, peasants.size());
+		return resources.sameElements(other.resources, (a, b) -> a == b
+				|| capped(a, goldLimit, woodLimit) == capped(b, goldLimit,
+						woodLimit));
 	}
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + currentGold;
-		result = prime * result + currentWood;
-		result = prime * result
-				+ ((peasantStates == null) ? 0 : peasantStates.hashCode());
-		return result;
+		return (int) (zobristHash ^ (zobristHash >>> 32));
+	}
+
+	/**
+	 * @return The Zobrist hash of the encoding and the capped resource
+	 *         amounts, the same for equal states
+	 */
+	long getZobristHash() {
+		return zobristHash;
+	}
+
+	/**
+	 * @return The encoding of the stock and the peasants, see encode, which
+	 *         is shared and must not be changed
+	 */
+	long[] getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Packs the stock and the peasants into words. The first word holds the
+	 * gold and wood stock, followed by one word per peasant. The peasant words
+	 * leave out the ID and are sorted, so they describe the peasants as a
+	 * multiset.
+	 *
+	 * The resource amounts are not part of the encoding. They are kept in the
+	 * persistent resource vector, which successors share, and only enter the
+	 * hash, see hashResources.
+	 *
+	 * @return The encoding of this state
+	 */
+	private long[] encode() {
+		long[] words = new long[1 + peasants.size()];
+		words[0] = packStock(currentGold, currentWood);
+		int word = 1;
+		for (PeasantState peasant : peasants) {
+			words[word++] = packPeasant(peasant);
+		}
+		Arrays.sort(words, 1, words.length);
+		return words;
+	}
+
+	/**
+	 * The most of a resource type that can still be gathered from a state
+	 * with the given stock and number of peasants. A gather needs the stock
+	 * plus the gathered amount to stay within the requirement, every other
+	 * peasant can carry 100 on top of the stock and each peasant still to be
+	 * built spends 400 gold that can be gathered again. A resource with at
+	 * least this much left can never run out, so two states that only differ
+	 * in amounts above this limit have exactly the same futures.
+	 */
+	private int gatherLimit(ResourceType type, int gold, int wood,
+			int peasantCount) {
+		int maxPeasants = Math.max(peasantCount, desiredPeasantNumber());
+		int carried = 100 * (maxPeasants - 1);
+		if (type == ResourceType.GOLD) {
+			return Math.max(0, requiredGold - gold) + carried + 400
+					* (maxPeasants - peasantCount);
+		}
+		return Math.max(0, requiredWood - wood) + carried;
+	}
+
+	/**
+	 * @return The remaining amount of the resource, or its gather limit if
+	 *         that is lower
+	 */
+	private static int capped(ResourceState resource, int goldLimit,
+			int woodLimit) {
+		int limit = resource.getType() == ResourceType.GOLD ? goldLimit
+				: woodLimit;
+		return Math.min(resource.getRemaining(), limit);
+	}
+
+	private static long packStock(int gold, int wood) {
+		return ((long) gold << 32) | (wood & 0xFFFFFFFFL);
+	}
+
+	private static long packPeasant(PeasantState peasant) {
+		long cargoType = peasant.getCargoType() == null ? 0 : peasant
+				.getCargoType().ordinal() + 1;
+		return ((long) (peasant.getCargoAmount() & 0xFFFF) << 32)
+				| (cargoType << 28)
+				| ((long) (peasant.getPosition().x & 0x3FFF) << 14)
+				| (peasant.getPosition().y & 0x3FFF);
+	}
+
+	/**
+	 * Zobrist key of one word of the encoding. Instead of a table of random
+	 * numbers the key is a strong mix of the word's index and value, which
+	 * gives the same result without a table per possible value. Peasant words
+	 * all use the same key function whatever their index, so the hash does
+	 * not depend on the order of the peasants.
+	 */
+	private static long zobristKey(int wordIndex, long value) {
+		long z = value + (wordIndex + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static long peasantKey(long value) {
+		return zobristKey(-1, value);
+	}
+
+	private static long resourceKey(int resourceIndex, int remaining) {
+		return zobristKey(1 + resourceIndex, remaining);
+	}
+
+	/**
+	 * The keys are added rather than xored so that two identical peasants do
+	 * not cancel each other out.
+	 */
+	private static long hashOf(long[] words) {
+		long hash = zobristKey(0, words[0]);
+		for (int i = 1; i < words.length; i++) {
+			hash += peasantKey(words[i]);
+		}
+		return hash;
+	}
+
+	/**
+	 * Sums the keys of the capped remaining amounts of the resources.
+	 */
+	private long hashResources(PersistentVector<ResourceState> resources,
+			int gold, int wood, int peasantCount) {
+		int goldLimit = gatherLimit(ResourceType.GOLD, gold, wood,
+				peasantCount);
+		int woodLimit = gatherLimit(ResourceType.WOOD, gold, wood,
+				peasantCount);
+		long hash = 0;
+		int index = 0;
+		for (ResourceState resource : resources) {
+			hash += resourceKey(index++, capped(resource, goldLimit, woodLimit));
+		}
+		return hash;
+	}
+
+	/**
+	 * A successor that is being built from this state. It starts out with
+	 * this state's peasants, resources and encoding, and keeps the Zobrist
+	 * hash up to date as they are changed. The persistent vectors only copy
+	 * the paths to the elements that change.
+	 */
+	private class EncodingUpdate {
+		private PersistentVector<PeasantState> newPeasants;
+		private PersistentVector<ResourceState> newResources;
+		private long[] newNonEmpty;
+		private int[] newNearest;
+		private long[] words;
+		// Hash of the words, without the resources
+		private long hash;
+		private long newResourceHash;
+		private int newGold;
+		private int newWood;
+		// Gather limits the resource keys in newResourceHash are capped at
+		private int goldLimit;
+		private int woodLimit;
+
+		EncodingUpdate() {
+			newPeasants = peasants;
+			newResources = resources;
+			newNonEmpty = nonEmptyResources;
+			newNearest = nearestNonEmpty;
+			words = encoding.clone();
+			hash = zobristHash - resourceHash;
+			newResourceHash = resourceHash;
+			newGold = currentGold;
+			newWood = currentWood;
+			goldLimit = gatherLimit(ResourceType.GOLD, newGold, newWood,
+					newPeasants.size());
+			woodLimit = gatherLimit(ResourceType.WOOD, newGold, newWood,
+					newPeasants.size());
+		}
+
+		/**
+		 * Sets the stock. This can change the gather limits, see
+		 * updateLimits.
+		 */
+		void setStock(int gold, int wood) {
+			newGold = gold;
+			newWood = wood;
+			long stock = packStock(gold, wood);
+			hash += zobristKey(0, stock) - zobristKey(0, words[0]);
+			words[0] = stock;
+			updateLimits();
+		}
+
+		/**
+		 * Replaces the resource with the given index.
+		 */
+		void setResource(int resourceIndex, ResourceState after) {
+			ResourceState before = newResources.get(resourceIndex);
+			newResourceHash += resourceKey(resourceIndex,
+					capped(after, goldLimit, woodLimit))
+					- resourceKey(resourceIndex,
+							capped(before, goldLimit, woodLimit));
+			newResources = newResources.set(resourceIndex, after);
+			if (after.getRemaining() <= 0
+					&& (newNonEmpty[resourceIndex >> 6] & (1L << resourceIndex)) != 0) {
+				newNonEmpty = newNonEmpty.clone();
+				newNonEmpty[resourceIndex >> 6] &= ~(1L << resourceIndex);
+				int type = typeSlot(after.getType());
+				int[] order = distances.byDistance(after.getType());
+				int slot = newNearest[type];
+				if (slot < order.length && order[slot] == resourceIndex) {
+					newNearest = newNearest.clone();
+					newNearest[type] = nextNonEmpty(order, slot, newNonEmpty);
+				}
+			}
+		}
+
+		/**
+		 * Replaces a peasant and keeps the peasant words sorted.
+		 *
+		 * @param before
+		 *            The peasant before the action or null if it is new
+		 * @param after
+		 *            The peasant after the action
+		 */
+		void setPeasant(PeasantState before, PeasantState after) {
+			int word;
+			if (before == null) {
+				newPeasants = newPeasants.append(after);
+				word = words.length;
+				words = Arrays.copyOf(words, words.length + 1);
+				updateLimits();
+			} else {
+				newPeasants = newPeasants.set(slotOf(before.getId()), after);
+				long old = packPeasant(before);
+				word = 1;
+				while (words[word] != old) {
+					word++;
+				}
+				hash -= peasantKey(old);
+			}
+			words[word] = packPeasant(after);
+			hash += peasantKey(words[word]);
+			Arrays.sort(words, 1, words.length);
+		}
+
+		private int slotOf(int peasantId) {
+			int slot = 0;
+			while (newPeasants.get(slot).getId() != peasantId) {
+				slot++;
+			}
+			return slot;
+		}
+
+		/**
+		 * Computes the gather limits of the new stock and number of peasants
+		 * and moves the keys of the resources whose capped amount changes
+		 * with them.
+		 */
+		private void updateLimits() {
+			int newGoldLimit = gatherLimit(ResourceType.GOLD, newGold,
+					newWood, newPeasants.size());
+			int newWoodLimit = gatherLimit(ResourceType.WOOD, newGold,
+					newWood, newPeasants.size());
+			if (newGoldLimit != goldLimit) {
+				moveLimit(ResourceType.GOLD, goldLimit, newGoldLimit);
+				goldLimit = newGoldLimit;
+			}
+			if (newWoodLimit != woodLimit) {
+				moveLimit(ResourceType.WOOD, woodLimit, newWoodLimit);
+				woodLimit = newWoodLimit;
+			}
+		}
+
+		/**
+		 * Only resources with more left than the lower of the two limits
+		 * have a different capped amount. Empty resources are never above a
+		 * limit, so only the non-empty ones are looked at.
+		 */
+		private void moveLimit(ResourceType type, int before, int after) {
+			int lower = Math.min(before, after);
+			for (int word = 0; word < newNonEmpty.length; word++) {
+				long bits = newNonEmpty[word];
+				while (bits != 0) {
+					int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+					ResourceState resource = newResources.get(index);
+					int remaining = resource.getRemaining();
+					if (remaining > lower && resource.getType() == type) {
+						newResourceHash += resourceKey(index,
+								Math.min(remaining, after))
+								- resourceKey(index, Math.min(remaining, before));
+					}
+				}
+			}
+		}
+
+		GameState toState(StripsAction action) {
+			return toState(action, getCost() + action.getActionCost(),
+					GameState.this);
+		}
+
+		GameState toState(StripsAction action, double newCost,
+				GameState newParent) {
+			return new GameState(playernum, requiredGold, requiredWood,
+					buildPeasants, newPeasants, newResources, townHall,
+					newWood, newGold, action, newCost, xExtent, yExtent,
+					newParent, townHallID, words, hash + newResourceHash,
+					newResourceHash, newNonEmpty, newNearest,
+					newResources == resources ? dominatedResources : null);
+		}
+	}
+
+	/**
+	 * Builds the state the game is in after some of its units and resources
+	 * changed, without looking at the whole StateView again. PEAgent keeps
+	 * its execution state up to date with this, from what the HistoryView
+	 * says changed in the last turn. The tables of the scenario are shared
+	 * with this state and only the changed peasants and resources are
+	 * copied.
+	 *
+	 * The new state has no previous action and keeps this state's cost. Its
+	 * parent is the first state of the chain rather than this one, so that a
+	 * long episode does not keep the state of every turn alive.
+	 *
+	 * @param changedPeasants
+	 *            The peasants as they are now, new peasants are added
+	 * @param changedResources
+	 *            The resources as they are now, an exhausted resource keeps
+	 *            its index with nothing remaining
+	 * @param gold
+	 *            The current gold
+	 * @param wood
+	 *            The current wood
+	 * @return The new state, or this state if nothing changed
+	 */
+	public GameState observe(Collection<PeasantState> changedPeasants,
+			Collection<ResourceState> changedResources, int gold, int wood) {
+		EncodingUpdate update = new EncodingUpdate();
+		boolean changed = false;
+		if (gold != currentGold || wood != currentWood) {
+			update.setStock(gold, wood);
+			changed = true;
+		}
+		for (PeasantState peasant : changedPeasants) {
+			PeasantState before = getPeasant(peasant.getId());
+			if (!peasant.equals(before)) {
+				update.setPeasant(before, peasant);
+				changed = true;
+			}
+		}
+		for (ResourceState resource : changedResources) {
+			int index = resourceGrid.indexOf(resource.getPostion());
+			if (index >= 0
+					&& resources.get(index).getRemaining() != resource
+							.getRemaining()) {
+				update.setResource(index, resource);
+				changed = true;
+			}
+		}
+		if (!changed) {
+			return this;
+		}
+		return update.toState(null, cost, parent == null ? this : parent);
 	}
 
 	public Position getPeasantPosition(int peasantId) {
-		return peasantStates.get(peasantId).getPosition();
+		return getPeasant(peasantId).getPosition();
 	}
 
 	public int getXExtent() {
@@ -351,15 +817,12 @@ public class GameState implements Comparable<GameState> {
 
 	/**
 	 * Gets all positions that are occupied by a resource, townhall or peasant.
-	 * 
+	 *
 	 * @return A List containing Positions of occupied spaces.
 	 */
 	public List<Position> getOccupiedPositions() {
 		List<Position> allPositions = new ArrayList<Position>();
-		for (ResourceState state : trees) {
-			allPositions.add(state.getPostion());
-		}
-		for (ResourceState state : gold) {
+		for (ResourceState state : resources) {
 			allPositions.add(state.getPostion());
 		}
 		allPositions.add(townHall);
@@ -370,32 +833,42 @@ public class GameState implements Comparable<GameState> {
 	}
 
 	public GameState applyAction(StripsAction stripsAction) {
+		return applyAction(stripsAction, stripsAction.bind(this));
+	}
+
+	/**
+	 * Applies an action that has been bound to this state.
+	 *
+	 * @param stripsAction
+	 *            The action
+	 * @param slots
+	 *            The slots of the peasants that do the action, as returned by
+	 *            StripsAction.bind for this state
+	 * @return The state after the action
+	 */
+	public GameState applyAction(StripsAction stripsAction, long slots) {
 		switch (stripsAction.getActionType()) {
 		// Adds a new peasant and deducts 400 gold
 		case BUILD_PEASANT:
 			ProductionStripsAction action = (ProductionStripsAction) stripsAction;
-			int newID = getValidIDForNewPeasant();
-			Position newPosition = getValidPositionForNewPeasant();
-			Collection<PeasantState> peasants = getPeasants();
-			peasants.add(new PeasantState(newID, 0, null, newPosition));
-
-			return new GameState(playernum, requiredGold, requiredWood,
-					buildPeasants, buildPeasantMap(peasants), trees, gold,
-					townHall, currentWood, currentGold - 400, action, getCost()
-					+ action.getActionCost(), xExtent, yExtent, this,
-					townHallID);
+			PeasantState newPeasant = new PeasantState(
+					getValidIDForNewPeasant(), 0, null,
+					getValidPositionForNewPeasant());
+			EncodingUpdate build = new EncodingUpdate();
+			build.setStock(currentGold - 400, currentWood);
+			build.setPeasant(null, newPeasant);
+			return build.toState(action);
 
 			// Has the specified peasants deposit their goods at the TownHall
 		case DEPOSIT:
 			DepositStripsAction deposit = (DepositStripsAction) stripsAction;
-			List<Integer> ids = deposit.getPeasantIdsForAction(this);
-			Collection<PeasantState> updatedPeasants = getPeasants();
+			EncodingUpdate depositUpdate = new EncodingUpdate();
 			int newWood = currentWood;
 			int newGold = currentGold;
 			// For each peasant
-			for (Integer id : ids) {
-				PeasantState peasant = getPeasant(id);
-				updatedPeasants.remove(peasant);
+			for (long rest = slots; rest != 0; rest &= rest - 1) {
+				PeasantState peasant = peasants.get(Long
+						.numberOfTrailingZeros(rest));
 				// Incremennt the wood or gold
 				if (peasant.getCargoType() == ResourceType.WOOD) {
 					newWood += peasant.getCargoAmount();
@@ -403,73 +876,79 @@ public class GameState implements Comparable<GameState> {
 					newGold += peasant.getCargoAmount();
 				}
 				// Update the peasant to have no cargo
-				updatedPeasants.add(new PeasantState(id, 0, null, peasant
-						.getPosition()));
+				depositUpdate.setPeasant(peasant, new PeasantState(peasant
+						.getId(), 0, null, peasant.getPosition()));
 			}
-			return new GameState(playernum, requiredGold, requiredWood,
-					buildPeasants, buildPeasantMap(updatedPeasants), trees,
-					gold, townHall, newWood, newGold, deposit, getCost()
-					+ deposit.getActionCost(), xExtent, yExtent, this,
-					townHallID);
+			depositUpdate.setStock(newGold, newWood);
+			return depositUpdate.toState(deposit);
 
 			// Has the specified peasants gather from a given resource
 		case GATHER:
 			GatherStripsAction gather = (GatherStripsAction) stripsAction;
-			List<Integer> gatherIds = gather.getPeasantIdsForAction(this);
-			Collection<PeasantState> gatherUpdatedPeasants = getPeasants();
+			EncodingUpdate gatherUpdate = new EncodingUpdate();
 			ResourceState resource = getResourceByPosition(gather
 					.getResourcePosition());
 			int remaining = resource.getRemaining();
 			// For each peasant
-			for (Integer id : gatherIds) {
-				PeasantState peasant = getPeasant(id);
-				gatherUpdatedPeasants.remove(peasant);
+			for (long rest = slots; rest != 0; rest &= rest - 1) {
+				PeasantState peasant = peasants.get(Long
+						.numberOfTrailingZeros(rest));
 				// decrement resources remaining count
 				remaining -= 100;
 				// Add new peasant with cargo
-				gatherUpdatedPeasants.add(new PeasantState(id, 100, resource
-						.getType(), peasant.getPosition()));
-			}
-
-			List<ResourceState> newTrees = getTreeCopy();
-			List<ResourceState> newGolds = getGoldCopy();
-			// Update the resource
-			if (resource.getType() == ResourceType.WOOD) {
-				newTrees.remove(resource);
-				newTrees.add(new ResourceState(resource.getPostion(), resource
-						.getType(), remaining, resource.getResourceId()));
-			} else {
-				newGolds.remove(resource);
-				newGolds.add(new ResourceState(resource.getPostion(), resource
-						.getType(), remaining, resource.getResourceId()));
+				gatherUpdate.setPeasant(peasant, new PeasantState(peasant
+						.getId(), 100, resource.getType(), peasant
+						.getPosition()));
 			}
 
-			return new GameState(playernum, requiredGold, requiredWood,
-					buildPeasants, buildPeasantMap(gatherUpdatedPeasants),
-					newTrees, newGolds, townHall, currentWood, currentGold,
-					gather, getCost() + gather.getActionCost(), xExtent,
-					yExtent, this, townHallID);
+			// Update the resource in place so its index stays the same
+			gatherUpdate.setResource(
+					resourceGrid.indexOf(resource.getPostion()),
+					new ResourceState(resource.getPostion(), resource
+							.getType(), remaining, resource.getResourceId()));
+			return gatherUpdate.toState(gather);
 
 			// Move the specified peasants
 		case MOVE:
 			MoveStripsAction move = (MoveStripsAction) stripsAction;
-			List<Integer> moveIds = move.getPeasantIdsForAction(this);
-			Collection<PeasantState> moveUpdatedPeasants = getPeasants();
+			EncodingUpdate moveUpdate = new EncodingUpdate();
 			Position dest = move.getDestination();
 			// For each peasant
-			for (Integer id : moveIds) {
-				PeasantState peasant = getPeasant(id);
-				moveUpdatedPeasants.remove(peasant);
+			for (long rest = slots; rest != 0; rest &= rest - 1) {
+				PeasantState peasant = peasants.get(Long
+						.numberOfTrailingZeros(rest));
 				// Update the peasant location.
-				moveUpdatedPeasants.add(new PeasantState(id, peasant
-						.getCargoAmount(), peasant.getCargoType(), dest));
+				moveUpdate.setPeasant(peasant, new PeasantState(peasant
+						.getId(), peasant.getCargoAmount(), peasant
+						.getCargoType(), dest));
 			}
+			return moveUpdate.toState(move);
 
-			return new GameState(playernum, requiredGold, requiredWood,
-					buildPeasants, buildPeasantMap(moveUpdatedPeasants), trees,
-					gold, townHall, currentWood, currentGold, move, getCost()
-					+ move.getActionCost(), xExtent, yExtent, this,
-					townHallID);
+			// The specified peasants gather from a resource and deposit at
+			// the town hall, ending up where they started with empty hands
+		case HARVEST_CYCLE:
+			HarvestCycleStripsAction cycle = (HarvestCycleStripsAction) stripsAction;
+			EncodingUpdate cycleUpdate = new EncodingUpdate();
+			ResourceState harvested = getResourceByPosition(cycle
+					.getResourcePosition());
+			int amount = 100 * Long.bitCount(slots);
+			for (long rest = slots; rest != 0; rest &= rest - 1) {
+				PeasantState peasant = peasants.get(Long
+						.numberOfTrailingZeros(rest));
+				cycleUpdate.setPeasant(peasant, new PeasantState(peasant
+						.getId(), 0, null, townHall));
+			}
+			cycleUpdate.setResource(
+					resourceGrid.indexOf(harvested.getPostion()),
+					new ResourceState(harvested.getPostion(), harvested
+							.getType(), harvested.getRemaining() - amount,
+							harvested.getResourceId()));
+			if (harvested.getType() == ResourceType.GOLD) {
+				cycleUpdate.setStock(currentGold + amount, currentWood);
+			} else {
+				cycleUpdate.setStock(currentGold, currentWood + amount);
+			}
+			return cycleUpdate.toState(cycle);
 		default:
 			throw new RuntimeException("Default reached on switch statement.");
 		}
@@ -491,68 +970,237 @@ public class GameState implements Comparable<GameState> {
 
 	private int getValidIDForNewPeasant() {
 		int max = -1;
-		for (int i : peasantStates.keySet()) {
-			max = Math.max(i, max);
+		for (PeasantState peasant : peasants) {
+			max = Math.max(peasant.getId(), max);
 		}
 		return max + 1;
 	}
 
-	private List<ResourceState> getTreeCopy() {
-		return new ArrayList<ResourceState>(trees);
+	private static PersistentVector<ResourceState> resourceVector(
+			List<ResourceState> gold, List<ResourceState> trees) {
+		List<ResourceState> all = new ArrayList<ResourceState>(gold);
+		all.addAll(trees);
+		return PersistentVector.of(all);
+	}
+
+	public ResourceState getResourceByPosition(Position resourcePosition) {
+		int index = resourceGrid.indexOf(resourcePosition);
+		if (index < 0) {
+			return null;
+		}
+		return resources.get(index);
 	}
 
-	private List<ResourceState> getGoldCopy() {
-		return new ArrayList<ResourceState>(gold);
+	/**
+	 * @param position
+	 *            Any position
+	 * @return true if there is a resource at the position with something
+	 *         left in it
+	 */
+	public boolean isNonEmptyResource(Position position) {
+		int index = resourceGrid.indexOf(position);
+		return index >= 0 && isNonEmptyResource(index);
 	}
 
-	public ResourceState getResourceByPosition(Position resourcePosition) {
-		for (ResourceState resource : gold) {
-			if (resource.getPostion().equals(resourcePosition)) {
-				return resource;
+	/**
+	 * @param resourceIndex
+	 *            The index of a resource in getResources()
+	 * @return true if the resource still has something left
+	 */
+	public boolean isNonEmptyResource(int resourceIndex) {
+		return isSet(nonEmptyResources, resourceIndex);
+	}
+
+	/**
+	 * Gathers only ever empty resources, so the nearest non-empty resource of
+	 * a type only moves further down getDistances().byDistance(type). It is
+	 * kept up to date by applyAction and costs nothing to look up.
+	 *
+	 * @param type
+	 *            The type of resource
+	 * @return The first slot of getDistances().byDistance(type) whose
+	 *         resource still has something left, or the length of that array
+	 *         if there is none
+	 */
+	public int nearestNonEmptySlot(ResourceType type) {
+		return nearestNonEmpty[typeSlot(type)];
+	}
+
+	/**
+	 * A resource is dominated when another one of the same type is at least
+	 * as close to the town hall and has at least as much left. Anything a
+	 * trip to the dominated resource does can be done as cheaply at the
+	 * other one, so peasants are only sent to it once the other runs out.
+	 * Of two resources that are equally close and full, the one earlier in
+	 * getDistances().byDistance(type) is kept.
+	 *
+	 * @return Bit i is set if resource i is dominated
+	 */
+	private long[] findDominatedResources() {
+		long[] dominated = new long[nonEmptyResources.length];
+		for (ResourceType type : new ResourceType[] { ResourceType.GOLD,
+				ResourceType.WOOD }) {
+			int[] order = distances.byDistance(type);
+			int most = 0;
+			for (int slot = nearestNonEmptySlot(type); slot < order.length; slot++) {
+				int index = order[slot];
+				if (!isSet(nonEmptyResources, index)) {
+					continue;
+				}
+				int remaining = resources.get(index).getRemaining();
+				if (remaining <= most) {
+					dominated[index >> 6] |= 1L << index;
+				} else {
+					most = remaining;
+				}
+			}
+		}
+		return dominated;
+	}
+
+	private int[] findNearestNonEmpty() {
+		return new int[] {
+				nextNonEmpty(distances.byDistance(ResourceType.GOLD), 0,
+						nonEmptyResources),
+				nextNonEmpty(distances.byDistance(ResourceType.WOOD), 0,
+						nonEmptyResources) };
+	}
+
+	/**
+	 * @return The first slot from the given one on whose resource is set in
+	 *         the bits, or the length of the order if there is none
+	 */
+	private static int nextNonEmpty(int[] order, int slot, long[] bits) {
+		while (slot < order.length && !isSet(bits, order[slot])) {
+			slot++;
+		}
+		return slot;
+	}
+
+	private static boolean isSet(long[] bits, int index) {
+		return (bits[index >> 6] & (1L << index)) != 0;
+	}
+
+	private static int typeSlot(ResourceType type) {
+		return type == ResourceType.GOLD ? 0 : 1;
+	}
+
+	/**
+	 * Marks every cell with a resource or a unit other than one of this
+	 * player's peasants. Peasants get out of each other's way during the
+	 * game, every other unit is treated as standing still.
+	 */
+	private boolean[] findBlockedCells(State.StateView state) {
+		boolean[] blocked = new boolean[xExtent * yExtent];
+		List<Position> obstacles = new ArrayList<Position>();
+		for (ResourceView resource : state.getAllResourceNodes()) {
+			obstacles.add(new Position(resource.getXPosition(), resource
+					.getYPosition()));
+		}
+		for (UnitView unit : state.getAllUnits()) {
+			if (getPeasant(unit.getID()) == null) {
+				obstacles.add(new Position(unit.getXPosition(), unit
+						.getYPosition()));
 			}
 		}
-		for (ResourceState resource : trees) {
-			if (resource.getPostion().equals(resourcePosition)) {
-				return resource;
+		for (Position obstacle : obstacles) {
+			if (obstacle.inBounds(xExtent, yExtent)) {
+				blocked[obstacle.x * yExtent + obstacle.y] = true;
 			}
 		}
-		return null;
+		return blocked;
 	}
 
-	private Map<Integer, PeasantState> buildPeasantMap(
-			Collection<PeasantState> updatedPeasants) {
-		Map<Integer, PeasantState> newMap = new HashMap<Integer, PeasantState>();
-		for (PeasantState state : updatedPeasants) {
-			newMap.put(state.getId(), state);
+	private long[] findNonEmptyResources() {
+		long[] bits = new long[(resources.size() + 63) / 64];
+		int index = 0;
+		for (ResourceState resource : resources) {
+			if (resource.getRemaining() > 0) {
+				bits[index >> 6] |= 1L << index;
+			}
+			index++;
 		}
-		return newMap;
+		return bits;
 	}
 
 	public Position getTownHallPosition() {
 		return townHall;
 	}
 
-	public List<Position> getNonEmptyResourcePositions() {
-		List<Position> positions = new ArrayList<Position>();
-		for (ResourceState state : trees) {
-			if (state.getRemaining() > 0) {
-				positions.add(state.getPostion());
-			}
-		}
-		for (ResourceState state : gold) {
-			if (state.getRemaining() > 0) {
-				positions.add(state.getPostion());
+	public DistanceTable getDistances() {
+		return distances;
+	}
+
+	/**
+	 * @return The grounded actions of the scenario, shared by every state of
+	 *         the search
+	 */
+	public ActionTable getActionTable() {
+		return actionTable;
+	}
+
+	/**
+	 * @return All gold mines and trees with their remaining amounts, as an
+	 *         unmodifiable view that shares the state's storage
+	 */
+	public List<ResourceState> getResources() {
+		return resources.asList();
+	}
+
+	/**
+	 * There are never more peasants than the food supply allows, so the
+	 * peasants are kept in a small vector and looked up by a linear scan.
+	 *
+	 * @return The peasant with the given ID or null if there is none
+	 */
+	public PeasantState getPeasant(int peasantID) {
+		for (PeasantState peasant : peasants) {
+			if (peasant.getId() == peasantID) {
+				return peasant;
 			}
 		}
-		return positions;
+		return null;
 	}
 
-	public PeasantState getPeasant(int peasantID) {
-		return peasantStates.get(peasantID);
+	/**
+	 * @return The number of peasants
+	 */
+	public int getPeasantCount() {
+		return peasants.size();
 	}
 
+	/**
+	 * @param slot
+	 *            A slot from 0 to getPeasantCount() - 1
+	 * @return The peasant in the slot, see StripsAction.bind
+	 */
+	public PeasantState getPeasantInSlot(int slot) {
+		return peasants.get(slot);
+	}
+
+	/**
+	 * @param slots
+	 *            Peasant slots as returned by StripsAction.bind
+	 * @return The IDs of the peasants in the slots, empty for
+	 *         StripsAction.UNBOUND
+	 */
+	public List<Integer> getPeasantIds(long slots) {
+		List<Integer> ids = new ArrayList<Integer>();
+		if (slots == StripsAction.UNBOUND) {
+			return ids;
+		}
+		for (long rest = slots; rest != 0; rest &= rest - 1) {
+			ids.add(peasants.get(Long.numberOfTrailingZeros(rest)).getId());
+		}
+		return ids;
+	}
+
+	/**
+	 * @return The peasants as an unmodifiable view that shares the state's
+	 *         storage
+	 */
 	public Collection<PeasantState> getPeasants() {
-		return new HashSet<PeasantState>(peasantStates.values());
+		return peasants.asList();
 	}
 
 	public int getCurrentGold() {
@@ -560,7 +1208,7 @@ public class GameState implements Comparable<GameState> {
 	}
 
 	public int getCurrentFood() {
-		return 3 - peasantStates.size();
+		return 3 - peasants.size();
 	}
 
 	public int desiredPeasantNumber() {
@@ -582,4 +1230,8 @@ public class GameState implements Comparable<GameState> {
 	public int getRequiredGold() {
 		return requiredGold;
 	}
+
+	public boolean isBuildPeasants() {
+		return buildPeasants;
+	}
 }
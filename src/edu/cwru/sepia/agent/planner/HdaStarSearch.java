@@ -0,0 +1,346 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Hash distributed A* (HDA*). Every GameState is owned by one worker thread,
+ * chosen by a hash of the state. Each worker keeps its own open and closed
+ * list and only expands the states it owns. Children owned by another worker
+ * are posted to that worker's mailbox, which is a lock-free queue.
+ *
+ * Goal states are not expanded, they only lower the f value of the best plan
+ * found so far (the incumbent). States whose f value is not below the
+ * incumbent's are pruned when they are generated, when they are received and
+ * before they are expanded, so once every worker is out of states below the
+ * incumbent and no messages are in flight the incumbent is a goal that the
+ * serial A* search could have returned with the same heuristic. With an
+ * admissible heuristic it is optimal.
+ *
+ * Every worker publishes the head of its open list and the first of the
+ * children it sent in its last expansion until the owner received it. A
+ * worker only expands its head when nothing published comes before it in the
+ * order of the search, i.e. by f value and then by the tie breaking policy,
+ * so the search follows the order of the serial search except for states
+ * that are equal in that order, which are expanded in parallel. Without this
+ * the workers that are out of the states the serial search would expand next
+ * expand others while the plan is still being found, which with a tight
+ * heuristic costs far more expansions than the serial search.
+ */
+public class HdaStarSearch {
+
+	private final int threadCount;
+	private final Supplier<? extends OpenList> frontier;
+	private final Comparator<GameState> order;
+
+	private Worker[] workers;
+	private AtomicReference<GameState> incumbent;
+	// Number of states posted to a mailbox that have not been processed yet
+	private AtomicLong inFlight;
+	// Number of workers with nothing left to do
+	private AtomicInteger idleWorkers;
+	// Bumped whenever an idle worker wakes up, used by the termination test
+	private AtomicLong wakeUps;
+	private volatile boolean done;
+	private volatile Throwable failure;
+	private SearchMetrics metrics;
+
+	/**
+	 * @param threadCount
+	 *            The number of worker threads
+	 * @param frontier
+	 *            Creates the open list of each worker
+	 * @param order
+	 *            The order in which the open lists give their states, used to
+	 *            decide which worker may expand its next state
+	 */
+	public HdaStarSearch(int threadCount, Supplier<? extends OpenList> frontier,
+			Comparator<GameState> order) {
+		if (threadCount < 1) {
+			throw new IllegalArgumentException(
+					"HDA* needs at least one thread, got " + threadCount);
+		}
+		this.threadCount = threadCount;
+		this.frontier = frontier;
+		this.order = order;
+	}
+
+	/**
+	 * Runs the search from the given state.
+	 *
+	 * @param startState
+	 *            The state which is being planned from
+	 * @return The cheapest goal state found or null if no goal is reachable
+	 *         or the calling thread was interrupted
+	 */
+	public GameState search(GameState startState) {
+		workers = new Worker[threadCount];
+		incumbent = new AtomicReference<GameState>();
+		inFlight = new AtomicLong();
+		idleWorkers = new AtomicInteger();
+		wakeUps = new AtomicLong();
+		done = false;
+		failure = null;
+
+		for (int i = 0; i < threadCount; i++) {
+			workers[i] = new Worker(i);
+		}
+		if (startState.isGoal()) {
+			return startState;
+		}
+		send(startState);
+
+		Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			threads[i] = new Thread(workers[i], "hda-worker-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		// When interrupted, stop the workers and wait for them so that
+		// their counters can still be added up
+		boolean interrupted = false;
+		for (Thread thread : threads) {
+			while (thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					done = true;
+					interrupted = true;
+				}
+			}
+		}
+		if (failure != null) {
+			throw new RuntimeException("HDA* worker failed", failure);
+		}
+
+		metrics = new SearchMetrics();
+		for (Worker worker : workers) {
+			metrics.add(worker.metrics);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		return incumbent.get();
+	}
+
+	/**
+	 * @return The number of states expanded by all workers in the last search
+	 */
+	public long getExpandedCount() {
+		return metrics.getExpanded();
+	}
+
+	/**
+	 * @return The counters of all workers in the last search added up
+	 */
+	public SearchMetrics getMetrics() {
+		return metrics;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	private int ownerOf(GameState state) {
+		// Spread the bits of the hash code before taking the modulus
+		int h = state.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return Math.floorMod(h, threadCount);
+	}
+
+	private void send(GameState state) {
+		inFlight.incrementAndGet();
+		workers[ownerOf(state)].mailbox.offer(state);
+	}
+
+	private double bound() {
+		GameState best = incumbent.get();
+		return best == null ? Double.POSITIVE_INFINITY : best.getFValue();
+	}
+
+	/**
+	 * @return true if no worker published a state that goes before the
+	 *         given one
+	 */
+	private boolean isFirst(GameState state) {
+		for (Worker worker : workers) {
+			GameState head = worker.head;
+			if (head != null && order.compare(head, state) < 0) {
+				return false;
+			}
+			GameState sent = worker.sent.get();
+			if (sent != null && order.compare(sent, state) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void offerGoal(GameState goal) {
+		GameState best = incumbent.get();
+		while (best == null || goal.getFValue() < best.getFValue()) {
+			if (incumbent.compareAndSet(best, goal)) {
+				return;
+			}
+			best = incumbent.get();
+		}
+	}
+
+	/**
+	 * All workers are idle and nothing is in flight. A worker can only wake
+	 * up by receiving a message, so if no worker woke up while the counters
+	 * were read the search is finished.
+	 *
+	 * This relies on the order in which a worker takes a message: it leaves
+	 * the idle count, adds the state to its open list, bumps wakeUps and only
+	 * then takes the message out of inFlight. If inFlight reads 0 after a
+	 * worker took a message, its wake up was counted before that read, so
+	 * either it happened after before was read and wakeUps differs, or the
+	 * worker was no longer idle when idleWorkers was read.
+	 */
+	private boolean finished() {
+		long before = wakeUps.get();
+		return idleWorkers.get() == threadCount && inFlight.get() == 0
+				&& wakeUps.get() == before;
+	}
+
+	private class Worker implements Runnable {
+
+		private final int id;
+		private final ConcurrentLinkedQueue<GameState> mailbox;
+		private final OpenList openList;
+		private final Map<GameState, GameState> closedList;
+		private final SearchMetrics metrics;
+		// The head of the open list, read by the other workers
+		private volatile GameState head;
+		// The first child sent in the last expansion, cleared by its owner
+		// once the child is in the owner's open list
+		private final AtomicReference<GameState> sent;
+
+		Worker(int id) {
+			this.id = id;
+			this.mailbox = new ConcurrentLinkedQueue<GameState>();
+			this.openList = frontier.get();
+			this.closedList = new HashMap<GameState, GameState>();
+			this.metrics = new SearchMetrics();
+			this.sent = new AtomicReference<GameState>();
+		}
+
+		@Override
+		public void run() {
+			try {
+				work();
+			} catch (Throwable t) {
+				failure = t;
+				done = true;
+			}
+		}
+
+		private void work() {
+			boolean idle = false;
+			while (!done) {
+				GameState message = mailbox.poll();
+				if (message != null) {
+					if (idle) {
+						idle = false;
+						idleWorkers.decrementAndGet();
+						receive(message);
+						wakeUps.incrementAndGet();
+					} else {
+						receive(message);
+					}
+					for (Worker sender : workers) {
+						sender.sent.compareAndSet(message, null);
+					}
+					inFlight.decrementAndGet();
+					continue;
+				}
+
+				GameState next = openList.peek();
+				if (next != null && next.getFValue() < bound()) {
+					if (isFirst(next)) {
+						expand(openList.poll());
+					} else {
+						// Another worker holds a state that goes first
+						Thread.yield();
+					}
+				} else {
+					if (!idle) {
+						idle = true;
+						idleWorkers.incrementAndGet();
+					}
+					if (finished()) {
+						done = true;
+					} else {
+						Thread.yield();
+					}
+				}
+			}
+		}
+
+		private void receive(GameState state) {
+			if (state.getFValue() >= bound()) {
+				// The incumbent was lowered after the state was sent
+				return;
+			}
+			GameState closed = closedList.get(state);
+			if (closed != null) {
+				if (closed.getCost() <= state.getCost()) {
+					metrics.duplicate();
+					return;
+				}
+				// Found a cheaper path to an expanded state, reopen it
+				closedList.remove(closed);
+				metrics.reopened();
+			}
+			if (!openList.add(state)) {
+				metrics.duplicate();
+			}
+			metrics.openSize(openList.size());
+			head = openList.peek();
+		}
+
+		private void expand(GameState current) {
+			closedList.put(current, current);
+			metrics.closedSize(closedList.size());
+			long start = System.nanoTime();
+			List<GameState> children = current.generateChildren();
+			long generatedAt = System.nanoTime();
+			metrics.expanded(children.size(), generatedAt - start);
+			List<GameState> outbox = new ArrayList<GameState>();
+			GameState first = null;
+			for (GameState child : children) {
+				if (child.isGoal()) {
+					offerGoal(child);
+				} else if (child.getFValue() < bound()) {
+					if (ownerOf(child) == id) {
+						receive(child);
+					} else {
+						outbox.add(child);
+						if (first == null || order.compare(child, first) < 0) {
+							first = child;
+						}
+					}
+				}
+			}
+			// Published before it is sent, so that the owner can clear it
+			sent.set(first);
+			for (GameState child : outbox) {
+				send(child);
+			}
+			metrics.hashed(System.nanoTime() - generatedAt);
+			head = openList.peek();
+		}
+	}
+}
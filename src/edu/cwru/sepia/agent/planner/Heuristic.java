@@ -0,0 +1,22 @@
+package edu.cwru.sepia.agent.planner;
+
+/**
+ * Estimates the remaining cost from a GameState to a goal. The initial state
+ * is given the heuristic to use and every successor inherits it, so one
+ * instance serves a whole search and may keep data between calls. States can
+ * be built by several threads at once, see HdaStarSearch, so an
+ * implementation that keeps data must be thread safe.
+ */
+public interface Heuristic {
+
+	/**
+	 * Called once for every state, when the state is built. The state's
+	 * heuristic() and getFValue() are not set yet.
+	 *
+	 * @param state
+	 *            The state to estimate
+	 * @return The estimated remaining cost to reach a goal state, or
+	 *         Double.POSITIVE_INFINITY if no goal can be reached from it
+	 */
+	public double estimate(GameState state);
+}
@@ -0,0 +1,187 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Iterative deepening A* (IDA*) with a bounded transposition table. Each
+ * iteration is a depth first search that cuts off states whose f value is
+ * above a threshold, and the next iteration raises the threshold to the
+ * smallest f value that was cut off. Only the current path is kept alive by
+ * the search itself.
+ *
+ * The transposition table remembers the lowest cost each state was reached
+ * with during the current iteration, so the same state is not searched again
+ * through a more expensive path. It holds at most nodeCap entries and forgets
+ * the least recently used one when it is full. Forgetting a state only costs
+ * search time, never correctness. An entry is keyed by the state's Zobrist
+ * hash and encoding rather than by the state, whose parent pointer would keep
+ * its whole path alive, so the table takes memory in proportion to nodeCap
+ * no matter how large the resource goals are. Two states whose encodings are
+ * equal but whose resource amounts differ share a key only if their hashes
+ * collide as well.
+ */
+public class IdaStarSearch {
+
+	private final int nodeCap;
+	private final Comparator<? super GameState> order;
+
+	private Map<Transposition, Double> transpositions;
+	private double nextThreshold;
+	private SearchMetrics metrics;
+	private int iterations;
+
+	/**
+	 * @param nodeCap
+	 *            The most entries kept in the transposition table, each of
+	 *            which holds a hash and an encoding but no state
+	 * @param order
+	 *            Order in which the children of a state are searched
+	 */
+	public IdaStarSearch(int nodeCap, Comparator<? super GameState> order) {
+		if (nodeCap < 1) {
+			throw new IllegalArgumentException(
+					"IDA* needs a node cap of at least 1, got " + nodeCap);
+		}
+		this.nodeCap = nodeCap;
+		this.order = order;
+	}
+
+	/**
+	 * Runs the search from the given state.
+	 *
+	 * @param startState
+	 *            The state which is being planned from
+	 * @return The first goal state found or null if no goal is reachable or
+	 *         the calling thread was interrupted
+	 */
+	public GameState search(GameState startState) {
+		metrics = new SearchMetrics();
+		iterations = 0;
+		transpositions = new LinkedHashMap<Transposition, Double>(16, 0.75f,
+				true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Transposition, Double> eldest) {
+				return size() > nodeCap;
+			}
+		};
+
+		double threshold = startState.getFValue();
+		while (true) {
+			iterations++;
+			nextThreshold = Double.POSITIVE_INFINITY;
+			transpositions.clear();
+			GameState goal = depthFirst(startState, threshold, 1);
+			if (goal != null || Thread.currentThread().isInterrupted()) {
+				return goal;
+			}
+			if (nextThreshold == Double.POSITIVE_INFINITY) {
+				// Nothing was cut off, the whole space has been searched
+				return null;
+			}
+			threshold = nextThreshold;
+		}
+	}
+
+	/**
+	 * @return The number of states expanded over all iterations of the last
+	 *         search
+	 */
+	public long getExpandedCount() {
+		return metrics.getExpanded();
+	}
+
+	/**
+	 * The open list of IDA* is the path being searched, so the peak open size
+	 * is the deepest path, and the closed list is the transposition table.
+	 *
+	 * @return The counters of all iterations of the last search
+	 */
+	public SearchMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return The number of iterations the last search took
+	 */
+	public int getIterationCount() {
+		return iterations;
+	}
+
+	private GameState depthFirst(GameState state, double threshold, int depth) {
+		if (state.getFValue() > threshold) {
+			nextThreshold = Math.min(nextThreshold, state.getFValue());
+			return null;
+		}
+		if (state.isGoal()) {
+			return state;
+		}
+		if (Thread.currentThread().isInterrupted()) {
+			return null;
+		}
+		long start = System.nanoTime();
+		Transposition key = new Transposition(state);
+		Double seenCost = transpositions.get(key);
+		if (seenCost != null && seenCost <= state.getCost()) {
+			metrics.duplicate();
+			metrics.hashed(System.nanoTime() - start);
+			return null;
+		}
+		if (seenCost != null) {
+			metrics.reopened();
+		}
+		transpositions.put(key, state.getCost());
+		long generating = System.nanoTime();
+		metrics.hashed(generating - start);
+		metrics.closedSize(transpositions.size());
+		metrics.openSize(depth);
+
+		List<GameState> children = state.generateChildren();
+		metrics.expanded(children.size(), System.nanoTime() - generating);
+		children.sort(order);
+		for (GameState child : children) {
+			GameState goal = depthFirst(child, threshold, depth + 1);
+			if (goal != null) {
+				return goal;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The key of a state in the transposition table. It shares the state's
+	 * encoding but not the state, so the state and its ancestors can be
+	 * collected once the search has left them.
+	 */
+	private static final class Transposition {
+		private final long hash;
+		private final long[] encoding;
+
+		Transposition(GameState state) {
+			this.hash = state.getZobristHash();
+			this.encoding = state.getEncoding();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Transposition))
+				return false;
+			Transposition other = (Transposition) obj;
+			return hash == other.hash
+					&& Arrays.equals(encoding, other.encoding);
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (hash ^ (hash >>> 32));
+		}
+	}
+}
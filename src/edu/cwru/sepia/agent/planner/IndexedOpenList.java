@@ -0,0 +1,149 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A binary heap of GameStates that also keeps a hash index from each state to
+ * its slot in the heap. This lets the A* search find a duplicate of a newly
+ * generated state and lower its cost in O(log n) instead of scanning the whole
+ * open list.
+ *
+ * Only one instance of each state (according to GameState.equals) is kept in
+ * the heap at a time.
+ */
+public class IndexedOpenList implements OpenList {
+
+	private final List<GameState> heap;
+	private final Map<GameState, Integer> index;
+	private final Comparator<? super GameState> comparator;
+
+	/**
+	 * Creates an open list ordered by the natural ordering of GameState.
+	 */
+	public IndexedOpenList() {
+		this(Comparator.naturalOrder());
+	}
+
+	/**
+	 * Creates an open list ordered by the given comparator.
+	 *
+	 * @param comparator
+	 *            Ordering of the states, the smallest state is polled first
+	 */
+	public IndexedOpenList(Comparator<? super GameState> comparator) {
+		this.heap = new ArrayList<GameState>();
+		this.index = new HashMap<GameState, Integer>();
+		this.comparator = comparator;
+	}
+
+	@Override
+	public boolean add(GameState state) {
+		Integer slot = index.get(state);
+		if (slot == null) {
+			heap.add(state);
+			index.put(state, heap.size() - 1);
+			siftUp(heap.size() - 1);
+			return true;
+		}
+		GameState existing = heap.get(slot);
+		if (existing.getCost() <= state.getCost()) {
+			return false;
+		}
+		// The key may be keyed on an equal but different instance, so
+		// replace it as well as the heap entry.
+		index.remove(existing);
+		heap.set(slot, state);
+		index.put(state, slot);
+		// A lower cost normally moves the state up, but the heuristic can
+		// differ between equal states so it may also need to move down.
+		siftDown(siftUp(slot));
+		return true;
+	}
+
+	@Override
+	public GameState poll() {
+		if (heap.isEmpty()) {
+			return null;
+		}
+		GameState first = heap.get(0);
+		index.remove(first);
+		GameState last = heap.remove(heap.size() - 1);
+		if (!heap.isEmpty()) {
+			heap.set(0, last);
+			index.put(last, 0);
+			siftDown(0);
+		}
+		return first;
+	}
+
+	@Override
+	public GameState peek() {
+		return heap.isEmpty() ? null : heap.get(0);
+	}
+
+	@Override
+	public GameState get(GameState state) {
+		Integer slot = index.get(state);
+		return slot == null ? null : heap.get(slot);
+	}
+
+	@Override
+	public boolean contains(GameState state) {
+		return index.containsKey(state);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return heap.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return heap.size();
+	}
+
+	private int siftUp(int slot) {
+		GameState state = heap.get(slot);
+		while (slot > 0) {
+			int parent = (slot - 1) >>> 1;
+			GameState parentState = heap.get(parent);
+			if (comparator.compare(state, parentState) >= 0) {
+				break;
+			}
+			place(parentState, slot);
+			slot = parent;
+		}
+		place(state, slot);
+		return slot;
+	}
+
+	private int siftDown(int slot) {
+		GameState state = heap.get(slot);
+		int half = heap.size() >>> 1;
+		while (slot < half) {
+			int child = 2 * slot + 1;
+			int right = child + 1;
+			if (right < heap.size()
+					&& comparator.compare(heap.get(right), heap.get(child)) < 0) {
+				child = right;
+			}
+			GameState childState = heap.get(child);
+			if (comparator.compare(state, childState) <= 0) {
+				break;
+			}
+			place(childState, slot);
+			slot = child;
+		}
+		place(state, slot);
+		return slot;
+	}
+
+	private void place(GameState state, int slot) {
+		heap.set(slot, state);
+		index.put(state, slot);
+	}
+}
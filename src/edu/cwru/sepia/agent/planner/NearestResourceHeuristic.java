@@ -0,0 +1,101 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.List;
+
+import edu.cwru.sepia.environment.model.state.ResourceType;
+
+/**
+ * An admissible heuristic that uses where the resources are. Every 100 of a
+ * resource still needed takes a gather at some resource of the type. A round
+ * trip to a resource at distance d costs 2 d + 2 for the moves, the gather
+ * and the deposit, and a group of k peasants brings in k gathers with it, so
+ * each gather costs at least (2 d + 2) / k, with k the most peasants there
+ * can ever be. A plan costs a whole number, so the sum is rounded up. The
+ * cheapest gathers come from the nearest resources that still have something
+ * left, so the estimate takes them in order of distance until the deficit is
+ * covered. A peasant that already stands at a resource does not have to walk
+ * there, so as many gathers as there are such peasants are only counted with
+ * the walk back from the nearest resource.
+ *
+ * The resources are sorted by distance once per scenario, see
+ * DistanceTable.byDistance, and GameState keeps the nearest non-empty one of
+ * each type as gathers drain them, so the walk starts there. It then goes on
+ * one resource at a time until the deficit is covered, so an estimate costs
+ * a step for every resource it takes gathers from, which is not constant:
+ * up to one step per 100 still needed when the resources are small. The
+ * midas scenarios play on rc_3m5t, whose trees hold 400 each, so 1000 wood
+ * takes three steps.
+ */
+public class NearestResourceHeuristic implements Heuristic {
+
+	@Override
+	public double estimate(GameState state) {
+		int peasants = state.getPeasants().size();
+		int group = state.isBuildPeasants() ? Math.max(peasants,
+				state.desiredPeasantNumber()) : peasants;
+		int trips = roundTrips(state, ResourceType.GOLD,
+				state.getRequiredGold() - state.getCurrentGold())
+				+ roundTrips(state, ResourceType.WOOD, state.getRequiredWood()
+						- state.getCurrentWood());
+		// Plan costs are whole numbers, so the share of each peasant is
+		// rounded up. This keeps f integral for the bucket open lists.
+		int peasantsInGroup = Math.max(1, group);
+		return (trips + peasantsInGroup - 1) / peasantsInGroup;
+	}
+
+	/**
+	 * @param needed
+	 *            The amount of the type still needed in stock
+	 * @return The summed cost of the round trips of single gathers that cover
+	 *         what is needed of the type
+	 */
+	private static int roundTrips(GameState state, ResourceType type,
+			int needed) {
+		int atResource = 0;
+		for (PeasantState peasant : state.getPeasants()) {
+			if (peasant.getCargoAmount() > 0) {
+				if (peasant.getCargoType() == type) {
+					needed -= peasant.getCargoAmount();
+				}
+			} else {
+				ResourceState resource = state.getResourceByPosition(peasant
+						.getPosition());
+				if (resource != null && resource.getType() == type
+						&& resource.getRemaining() > 0) {
+					atResource++;
+				}
+			}
+		}
+		int gathers = (Math.max(0, needed) + 99) / 100;
+		if (gathers == 0) {
+			return 0;
+		}
+
+		int[] order = state.getDistances().byDistance(type);
+		int slot = state.nearestNonEmptySlot(type);
+		if (slot == order.length) {
+			return 0;
+		}
+		List<ResourceState> resources = state.getResources();
+		DistanceTable distances = state.getDistances();
+		int nearest = distances.fromTownHall(resources.get(order[slot])
+				.getPostion());
+
+		// The peasants at a resource save at least the walk out from the
+		// nearest one, the other gathers are the cheapest round trips
+		int shortened = Math.min(atResource, gathers);
+		int cost = shortened * (nearest + 2);
+		int left = gathers - shortened;
+		for (; slot < order.length && left > 0; slot++) {
+			if (!state.isNonEmptyResource(order[slot])) {
+				continue;
+			}
+			ResourceState resource = resources.get(order[slot]);
+			int taken = Math.min(left, (resource.getRemaining() + 99) / 100);
+			cost += taken
+					* (2 * distances.fromTownHall(resource.getPostion()) + 2);
+			left -= taken;
+		}
+		return cost;
+	}
+}
@@ -0,0 +1,49 @@
+package edu.cwru.sepia.agent.planner;
+
+/**
+ * The frontier of a search. Implementations keep at most one instance of each
+ * state (according to GameState.equals) and replace it when a cheaper copy of
+ * the state is added.
+ */
+public interface OpenList {
+
+	/**
+	 * Adds a state to the open list. If an equal state is already present it
+	 * is replaced only when the new state has a lower cost.
+	 *
+	 * @param state
+	 *            The state to add
+	 * @return true if the state was added or replaced an existing one, false
+	 *         if an equal state with a lower or equal cost was already present
+	 */
+	public boolean add(GameState state);
+
+	/**
+	 * Removes and returns the state that should be expanded next.
+	 *
+	 * @return The next state or null if the list is empty
+	 */
+	public GameState poll();
+
+	/**
+	 * @return The state that would be returned by poll without removing it, or
+	 *         null if empty
+	 */
+	public GameState peek();
+
+	/**
+	 * Gets the instance stored in the open list that is equal to the given
+	 * state.
+	 *
+	 * @param state
+	 *            The state to look up
+	 * @return The stored state or null if there is none
+	 */
+	public GameState get(GameState state);
+
+	public boolean contains(GameState state);
+
+	public boolean isEmpty();
+
+	public int size();
+}
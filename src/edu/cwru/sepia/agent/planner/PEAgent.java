@@ -5,9 +5,12 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.EmptyStackException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.Stack;
 
 import edu.cwru.sepia.action.Action;
@@ -15,10 +18,17 @@ import edu.cwru.sepia.action.ActionFeedback;
 import edu.cwru.sepia.action.ActionResult;
 import edu.cwru.sepia.agent.Agent;
 import edu.cwru.sepia.agent.planner.actions.GatherStripsAction;
+import edu.cwru.sepia.agent.planner.actions.HarvestCycleStripsAction;
 import edu.cwru.sepia.agent.planner.actions.MoveStripsAction;
 import edu.cwru.sepia.agent.planner.actions.StripsAction;
 import edu.cwru.sepia.agent.planner.actions.StripsAction.ActionType;
+import edu.cwru.sepia.environment.model.history.BirthLog;
 import edu.cwru.sepia.environment.model.history.History;
+import edu.cwru.sepia.environment.model.history.ResourceDropoffLog;
+import edu.cwru.sepia.environment.model.history.ResourceNodeExhaustionLog;
+import edu.cwru.sepia.environment.model.history.ResourcePickupLog;
+import edu.cwru.sepia.environment.model.state.ResourceNode.ResourceView;
+import edu.cwru.sepia.environment.model.state.ResourceType;
 import edu.cwru.sepia.environment.model.state.State;
 import edu.cwru.sepia.environment.model.state.Template;
 import edu.cwru.sepia.environment.model.state.Unit;
@@ -29,6 +39,13 @@ import edu.cwru.sepia.environment.model.state.Unit;
  */
 public class PEAgent extends Agent {
 
+	// Number of times a failed move that got nowhere is sent again before
+	// the plan is repaired
+	private static final int MOVE_RETRIES = 3;
+	// Turns a failed move waits for the unit in its way to move on before it
+	// is sent again anyway
+	private static final int MOVE_WAIT_TURNS = 10;
+
 	// The plan being executed
 	private Stack<StripsAction> plan = null;
 
@@ -43,15 +60,99 @@ public class PEAgent extends Agent {
 	private int requiredGold;
 	private int requiredWood;
 	private boolean buildPeasants;
+	// The game as the plan sees it, built from the StateView once and then
+	// kept up to date from the HistoryView, see observeLastTurn
+	private GameState state;
+	// The resources by their SEPIA ID, to find the resources in the logs
+	private Map<Integer, ResourceState> resourcesById;
+	// Where each peasant was last sent. The plan puts a peasant on the town
+	// hall or resource it moves to, SEPIA next to it, so a peasant next to
+	// its site is taken to be on it
+	private Map<Integer, Position> sites;
+	// Repairs the plan when its execution goes wrong, null to not repair
+	private PlanRepair planRepair;
+	// Set when a command failed, the plan is repaired once no unit is busy
+	private boolean diverged;
+	// How often the current move of each peasant has been retried
+	private Map<Integer, Integer> moveRetries;
+	// Failed moves waiting to be sent again, by peasant
+	private Map<Integer, BlockedMove> blockedMoves;
+	// The current move of each peasant, with where and when it was sent
+	private Map<Integer, SentMove> sentMoves;
+	// Where each peasant was last seen and the turn it last moved. Only the
+	// peasants that were given commands or born are looked at each turn.
+	private Map<Integer, Position> unitPositions;
+	private Map<Integer, Integer> movedAt;
+	// The turn being played
+	private int turn;
+	// The state the plan starts from, or null to build it in initialStep
+	private GameState startState;
+
+	/**
+	 * Where a peasant stood when its move was sent and the turn it was sent.
+	 * SEPIA plans the path of a move when it is sent, around the units that
+	 * stand in the way then.
+	 */
+	private static class SentMove {
+		private final Position from;
+		private final int turn;
+
+		SentMove(Position from, int turn) {
+			this.from = from;
+			this.turn = turn;
+		}
+	}
+
+	/**
+	 * A move that failed, most likely because another unit stood in its way,
+	 * with the turn it failed and the turn it was sent.
+	 */
+	private static class BlockedMove {
+		private final Action move;
+		private final int turn;
+		private final int sentTurn;
+
+		BlockedMove(Action move, int turn, int sentTurn) {
+			this.move = move;
+			this.turn = turn;
+			this.sentTurn = sentTurn;
+		}
+	}
 
 	public PEAgent(int playernum, Stack<StripsAction> plan, int requiredWood,
 			int requiredGold, boolean buildPeasants) {
+		this(playernum, plan, requiredWood, requiredGold, buildPeasants,
+				null, null);
+	}
+
+	/**
+	 * @param startState
+	 *            The state the plan was searched from, built from the
+	 *            StateView given to initialStep. The execution state is kept
+	 *            up to date from it, so a repair searches with the planner's
+	 *            heuristic and grounded actions. null to build a state with
+	 *            the ClassicHeuristic in initialStep.
+	 * @param planRepair
+	 *            Repairs the plan when a command fails or the plan gets
+	 *            stuck, or null to leave the plan as it is
+	 */
+	public PEAgent(int playernum, Stack<StripsAction> plan, int requiredWood,
+			int requiredGold, boolean buildPeasants, GameState startState,
+			PlanRepair planRepair) {
 		super(playernum);
 		peasantIdMap = new HashMap<Integer, Integer>();
+		sites = new HashMap<Integer, Position>();
+		moveRetries = new HashMap<Integer, Integer>();
+		blockedMoves = new HashMap<Integer, BlockedMove>();
+		sentMoves = new HashMap<Integer, SentMove>();
+		unitPositions = new HashMap<Integer, Position>();
+		movedAt = new HashMap<Integer, Integer>();
 		this.plan = plan;
 		this.requiredGold = requiredGold;
 		this.requiredWood = requiredWood;
 		this.buildPeasants = buildPeasants;
+		this.startState = startState;
+		this.planRepair = planRepair;
 	}
 
 	@Override
@@ -65,6 +166,8 @@ public class PEAgent extends Agent {
 				townhallId = unitId;
 			} else if (unitType.equals("peasant")) {
 				peasantIdMap.put(unitId, unitId);
+				unitPositions.put(unitId, new Position(unit.getXPosition(),
+						unit.getYPosition()));
 			}
 		}
 
@@ -78,6 +181,13 @@ public class PEAgent extends Agent {
 			}
 		}
 
+		state = startState != null ? startState : new GameState(stateView,
+				playernum, requiredGold, requiredWood, buildPeasants);
+		resourcesById = new HashMap<Integer, ResourceState>();
+		for (ResourceState resource : state.getResources()) {
+			resourcesById.put(resource.getResourceId(), resource);
+		}
+
 		return middleStep(stateView, historyView);
 	}
 
@@ -114,30 +224,55 @@ public class PEAgent extends Agent {
 	 * If the value is less than 1 then the action is still in progress.
 	 *
 	 * Also remember to check your plan's preconditions before executing!
+	 *
+	 * Execution is monitored. A peasant whose move SEPIA reports as maybe
+	 * stuck is still walking and stays busy. A failed move is sent again once
+	 * another unit has moved, or after a few turns, since the unit in its way
+	 * usually moves on. If a move has failed too often or another command
+	 * fails, or no unit is busy and the next action still cannot happen, the
+	 * plan is put right once no unit is busy any more: if the game is still
+	 * in one of the plan's states the plan goes on from there, otherwise it
+	 * is repaired with the PlanRepair.
 	 */
 	@Override
 	public Map<Integer, Action> middleStep(State.StateView stateView,
 			History.HistoryView historyView) {
 		List<Integer> busyIDs = new ArrayList<Integer>();
+		turn = stateView.getTurnNumber();
 		Map<Integer, ActionResult> actionResults = historyView
-				.getCommandFeedback(playernum, stateView.getTurnNumber() - 1);
+				.getCommandFeedback(playernum, turn - 1);
+		state = observeLastTurn(stateView, historyView, actionResults);
+		HashMap<Integer, Action> result = new HashMap<Integer, Action>();
 
-		// Mark peasants with incomplete actions as busy
+		// Mark peasants with incomplete actions as busy and look for failed
+		// commands. A move that may be stuck is still going, SEPIA fails it
+		// if it cannot get round what is in its way.
 		for (Entry<Integer, ActionResult> resEntry : actionResults.entrySet()) {
-			if (resEntry.getValue().getFeedback() == ActionFeedback.INCOMPLETE) {
+			ActionFeedback feedback = resEntry.getValue().getFeedback();
+			if (feedback == ActionFeedback.INCOMPLETE
+					|| feedback == ActionFeedback.INCOMPLETEMAYBESTUCK) {
 				busyIDs.add(resEntry.getKey());
+			} else if (feedback != ActionFeedback.COMPLETED) {
+				if (!blockMove(resEntry.getKey(), resEntry.getValue()
+						.getAction())) {
+					diverged = true;
+				}
 			}
 		}
+		retryBlockedMoves(busyIDs, result);
+
+		if (planRepair != null && busyIDs.isEmpty()
+				&& (diverged || isStuck())) {
+			repairPlan();
+		}
 
-		HashMap<Integer, Action> result = new HashMap<Integer, Action>();
 		StripsAction nextAction;
 		try {
 			nextAction = plan.peek();
 		} catch (EmptyStackException e) {
 			return result;
 		}
-		GameState state = new GameState(stateView, playernum, requiredGold,
-				requiredWood, buildPeasants);
+		nextAction = expandHarvestCycles(nextAction);
 		// If the action can happen
 		while (actionCanHappen(nextAction, busyIDs, state)) {
 			// remvoe from plan
@@ -153,7 +288,7 @@ public class PEAgent extends Agent {
 
 			try {
 				// attempt to add the next action if it can be done in parallel
-				nextAction = plan.peek();
+				nextAction = expandHarvestCycles(plan.peek());
 			} catch (EmptyStackException e) {
 				break;
 			}
@@ -161,6 +296,195 @@ public class PEAgent extends Agent {
 		return result;
 	}
 
+	/**
+	 * Brings the execution state up to date with what happened in the last
+	 * turn. Only the units that were given commands, the units that were
+	 * born and the resources that were gathered from can have changed, so
+	 * only those are looked up in the StateView. The cost of a turn depends
+	 * on what happened in it and not on the size of the map. The peasants
+	 * that moved are recorded for the blocked moves, see retryBlockedMoves.
+	 *
+	 * @param actionResults
+	 *            The command feedback of the last turn
+	 * @return The current state
+	 */
+	private GameState observeLastTurn(State.StateView stateView,
+			History.HistoryView historyView,
+			Map<Integer, ActionResult> actionResults) {
+		int lastTurn = stateView.getTurnNumber() - 1;
+		Set<Integer> changedUnits = new HashSet<Integer>(
+				actionResults.keySet());
+		for (BirthLog birth : historyView.getBirthLogs(lastTurn)) {
+			if (birth.getController() == playernum) {
+				changedUnits.add(birth.getNewUnitID());
+			}
+		}
+		for (ResourceDropoffLog dropoff : historyView
+				.getResourceDropoffLogs(lastTurn)) {
+			changedUnits.add(dropoff.getGathererID());
+		}
+
+		Map<Integer, ResourceState> changedResources = new HashMap<Integer, ResourceState>();
+		for (ResourcePickupLog pickup : historyView
+				.getResourcePickupLogs(lastTurn)) {
+			changedUnits.add(pickup.getGathererID());
+			ResourceView node = stateView.getResourceNode(pickup.getNodeID());
+			if (node != null) {
+				changedResources.put(node.getID(), new ResourceState(node));
+			}
+		}
+		// SEPIA removes exhausted resources, the plan keeps them empty
+		for (ResourceNodeExhaustionLog exhaustion : historyView
+				.getResourceNodeExhaustionLogs(lastTurn)) {
+			ResourceState resource = resourcesById.get(exhaustion
+					.getExhaustedNodeID());
+			if (resource != null) {
+				changedResources.put(resource.getResourceId(),
+						new ResourceState(resource.getPostion(), resource
+								.getType(), 0, resource.getResourceId()));
+			}
+		}
+
+		List<PeasantState> changedPeasants = new ArrayList<PeasantState>();
+		for (int unitId : changedUnits) {
+			Unit.UnitView unit = stateView.getUnit(unitId);
+			if (unit != null
+					&& unit.getTemplateView().getName().equals("Peasant")) {
+				Position position = new Position(unit.getXPosition(),
+						unit.getYPosition());
+				if (!position.equals(unitPositions.put(unitId, position))) {
+					movedAt.put(unitId, turn);
+				}
+				Position site = sites.get(unitId);
+				if (site != null && position.chebyshevDistance(site) <= 1) {
+					position = site;
+				}
+				changedPeasants.add(new PeasantState(unitId, unit
+						.getCargoAmount(), unit.getCargoType(), position));
+			}
+		}
+
+		return state.observe(changedPeasants, changedResources.values(),
+				stateView.getResourceAmount(playernum, ResourceType.GOLD),
+				stateView.getResourceAmount(playernum, ResourceType.WOOD));
+	}
+
+	/**
+	 * Holds a failed move back to be sent again, since the path is usually
+	 * blocked by another peasant that moves on. SEPIA plans the path when
+	 * the move is sent, so if other units have moved since, sending it again
+	 * plans a new path around them. If none has, for example because the
+	 * peasants in the way are still gathering, it would fail the same way,
+	 * so it waits until one moves, see retryBlockedMoves.
+	 *
+	 * A move that got the peasant somewhere before it failed, as when
+	 * peasants walk in a line down a narrow path, does not count as a retry.
+	 *
+	 * @return false if the failed action is not a move or has been retried
+	 *         often enough
+	 */
+	private boolean blockMove(int unitId, Action failed) {
+		if (failed == null
+				|| failed.getType() != edu.cwru.sepia.action.ActionType.COMPOUNDMOVE) {
+			return false;
+		}
+		SentMove sent = sentMoves.get(unitId);
+		if (sent == null || sent.from.equals(unitPositions.get(unitId))) {
+			int retries = moveRetries.getOrDefault(unitId, 0);
+			if (retries >= MOVE_RETRIES) {
+				return false;
+			}
+			moveRetries.put(unitId, retries + 1);
+		}
+		blockedMoves.put(unitId, new BlockedMove(failed, turn,
+				sent == null ? turn : sent.turn));
+		return true;
+	}
+
+	/**
+	 * Sends the blocked moves again whose peasant is no longer boxed in:
+	 * another unit has moved since the move was sent, or it has waited
+	 * MOVE_WAIT_TURNS turns. The peasants of the other blocked moves stay
+	 * busy, so the plan does not give them anything else to do.
+	 */
+	private void retryBlockedMoves(List<Integer> busyIDs,
+			Map<Integer, Action> result) {
+		Iterator<Entry<Integer, BlockedMove>> entries = blockedMoves
+				.entrySet().iterator();
+		while (entries.hasNext()) {
+			Entry<Integer, BlockedMove> entry = entries.next();
+			int unitId = entry.getKey();
+			BlockedMove blocked = entry.getValue();
+			busyIDs.add(unitId);
+			if (turn - blocked.turn >= MOVE_WAIT_TURNS
+					|| othersMoved(unitId, blocked.sentTurn)) {
+				result.put(unitId, blocked.move);
+				sentMoves.put(unitId, new SentMove(unitPositions.get(unitId),
+						turn));
+				entries.remove();
+			}
+		}
+	}
+
+	// True if a peasant other than the given one moved or was born after the
+	// given turn
+	private boolean othersMoved(int unitId, int since) {
+		for (Entry<Integer, Integer> moved : movedAt.entrySet()) {
+			if (moved.getKey() != unitId && moved.getValue() > since) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// True if the plan cannot go on while no unit is busy: the plan is done
+	// without reaching the goal, or its next action cannot happen
+	private boolean isStuck() {
+		if (plan.isEmpty()) {
+			return !state.isGoal();
+		}
+		return !expandHarvestCycles(plan.peek()).preconditionsMet(state);
+	}
+
+	// Goes on with the plan from the current state if the game is still in
+	// one of the plan's states, otherwise replaces the plan by a repaired one
+	private void repairPlan() {
+		diverged = false;
+		Stack<StripsAction> rest = planRepair.resume(state);
+		if (rest != null) {
+			plan = rest;
+			return;
+		}
+		long start = System.nanoTime();
+		Stack<StripsAction> repaired = planRepair.repair(state);
+		if (repaired == null) {
+			System.err.println("Could not repair the plan at turn " + turn
+					+ ", giving up on repairs");
+			planRepair = null;
+			return;
+		}
+		plan = repaired;
+		System.out.println("Repaired the plan at turn " + turn + " in "
+				+ (System.nanoTime() - start) / 1000000 + " ms, "
+				+ plan.size() + " actions left");
+	}
+
+	// Replaces a harvest cycle on top of the plan by its move, gather, move
+	// and deposit, which are executed like any other actions, and returns
+	// the new top of the plan
+	private StripsAction expandHarvestCycles(StripsAction nextAction) {
+		while (nextAction.getActionType() == ActionType.HARVEST_CYCLE) {
+			plan.pop();
+			List<StripsAction> steps = ((HarvestCycleStripsAction) nextAction)
+					.expand();
+			for (int i = steps.size() - 1; i >= 0; i--) {
+				plan.push(steps.get(i));
+			}
+			nextAction = plan.peek();
+		}
+		return nextAction;
+	}
+
 	// Returns true if the action can be completed based on the peasants that
 	// are busy and the current Game state
 	private boolean actionCanHappen(StripsAction nextAction,
@@ -207,6 +531,10 @@ public class PEAgent extends Agent {
 							move.getDestination().getXCoord(), move
 									.getDestination().getYCoord());
 					result.put(peasantsToUse.get(i), m);
+					sites.put(peasantsToUse.get(i), move.getDestination());
+					moveRetries.remove(peasantsToUse.get(i));
+					sentMoves.put(peasantsToUse.get(i), new SentMove(
+							unitPositions.get(peasantsToUse.get(i)), turn));
 				}
 			} else if (actionType == ActionType.GATHER) {
 				for (int i = 0; i < peasantsToUse.size(); i++) {
@@ -0,0 +1,395 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import edu.cwru.sepia.environment.model.state.ResourceType;
+
+/**
+ * A pattern database heuristic. The Midas states are abstracted to the gold
+ * stock and the wood still needed, in units of 100, and what every peasant is
+ * doing: standing at the town hall, at a gold mine or at a tree, and with or
+ * without cargo. Which mine or tree a peasant is at is left out, every trip is
+ * priced at the walking distance of the nearest resource of its type. The
+ * abstract space is small, so the exact cost to the goal of every abstract
+ * state is found once with Dijkstra's algorithm backwards from the goal
+ * states and kept in a flat int array. Estimating a state is then one array
+ * lookup.
+ *
+ * The abstract actions are the grounded actions with the map left out, so
+ * every plan maps to an abstract plan that costs no more and the heuristic is
+ * admissible. The requirements are assumed to be multiples of 100, like in all
+ * scenarios.
+ *
+ * Abstract states that cannot reach a goal, e.g. when wood is still needed
+ * on a map without trees, are estimated at Double.POSITIVE_INFINITY, and
+ * GameState.generateChildren leaves them out.
+ *
+ * The table depends only on the goal, whether peasants may be built and the
+ * two walking distances, so it can be saved and reused in later episodes, see
+ * write and read.
+ */
+public class PatternDatabase implements Heuristic {
+
+	// What a peasant is doing, the peasants of a state are counted per kind
+	private static final int EMPTY_HOME = 0;
+	private static final int EMPTY_AT_GOLD = 1;
+	private static final int EMPTY_AT_WOOD = 2;
+	private static final int GOLD_AWAY = 3;
+	private static final int GOLD_HOME = 4;
+	private static final int WOOD_AWAY = 5;
+	private static final int WOOD_HOME = 6;
+	private static final int KINDS = 7;
+
+	private static final int MAX_PEASANTS = 3;
+	private static final int PEASANT_GOLD_UNITS = 4;
+	private static final int FORMAT_VERSION = 1;
+
+	// Every way of spreading up to MAX_PEASANTS peasants over the kinds
+	private static final int[][] CONFIGS;
+	// Config index of every count vector packed two bits per kind
+	private static final int[] CONFIG_INDEX;
+
+	static {
+		CONFIG_INDEX = new int[1 << (2 * KINDS)];
+		Arrays.fill(CONFIG_INDEX, -1);
+		int count = 0;
+		int[][] configs = new int[CONFIG_INDEX.length][];
+		for (int packed = 0; packed < CONFIG_INDEX.length; packed++) {
+			int[] counts = unpack(packed);
+			int total = 0;
+			for (int c : counts) {
+				total += c;
+			}
+			if (total <= MAX_PEASANTS) {
+				CONFIG_INDEX[packed] = count;
+				configs[count++] = counts;
+			}
+		}
+		CONFIGS = Arrays.copyOf(configs, count);
+	}
+
+	private final int requiredGold;
+	private final int requiredWood;
+	private final boolean buildPeasants;
+	private final int maxPeasants;
+	private final int goldDistance;
+	private final int woodDistance;
+	// The requirements in units of 100
+	private final int goldUnits;
+	private final int woodUnits;
+	// Highest gold stock told apart, more than this buys nothing extra
+	private final int maxStock;
+	// Cost to the goal of every abstract state, see index
+	private final int[] table;
+
+	private PatternDatabase(int requiredGold, int requiredWood,
+			boolean buildPeasants, int maxPeasants, int goldDistance,
+			int woodDistance, int[] table) {
+		this.requiredGold = requiredGold;
+		this.requiredWood = requiredWood;
+		this.buildPeasants = buildPeasants;
+		this.maxPeasants = maxPeasants;
+		this.goldDistance = goldDistance;
+		this.woodDistance = woodDistance;
+		this.goldUnits = units(requiredGold);
+		this.woodUnits = units(requiredWood);
+		this.maxStock = goldUnits + PEASANT_GOLD_UNITS * MAX_PEASANTS;
+		this.table = table == null ? solve() : table;
+	}
+
+	/**
+	 * Builds the database for the scenario of the given state.
+	 *
+	 * @param state
+	 *            Any state of the scenario
+	 * @return The database
+	 */
+	public static PatternDatabase build(GameState state) {
+		return new PatternDatabase(state.getRequiredGold(),
+				state.getRequiredWood(), state.isBuildPeasants(),
+				state.desiredPeasantNumber(), state.getDistances().nearest(
+						ResourceType.GOLD), state.getDistances().nearest(
+						ResourceType.WOOD), null);
+	}
+
+	/**
+	 * @param state
+	 *            Any state
+	 * @return true if this database was built for the scenario of the state
+	 */
+	public boolean matches(GameState state) {
+		return requiredGold == state.getRequiredGold()
+				&& requiredWood == state.getRequiredWood()
+				&& buildPeasants == state.isBuildPeasants()
+				&& maxPeasants == state.desiredPeasantNumber()
+				&& goldDistance == state.getDistances().nearest(
+						ResourceType.GOLD)
+				&& woodDistance == state.getDistances().nearest(
+						ResourceType.WOOD);
+	}
+
+	@Override
+	public double estimate(GameState state) {
+		int[] counts = new int[KINDS];
+		Position townHall = state.getTownHallPosition();
+		for (PeasantState peasant : state.getPeasants()) {
+			counts[kindOf(state, townHall, peasant)]++;
+		}
+		int stock = Math.min(maxStock, state.getCurrentGold() / 100);
+		int wood = Math.min(woodUnits, Math.max(0,
+				units(state.getRequiredWood() - state.getCurrentWood())));
+		int config = configOf(counts);
+		if (config < 0) {
+			return 0;
+		}
+		int cost = table[index(stock, wood, config)];
+		return cost == Integer.MAX_VALUE ? Double.POSITIVE_INFINITY : cost;
+	}
+
+	/**
+	 * @return The number of abstract states in the table
+	 */
+	public int size() {
+		return table.length;
+	}
+
+	/**
+	 * Writes the database so that read can load it again.
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(requiredGold);
+		out.writeInt(requiredWood);
+		out.writeBoolean(buildPeasants);
+		out.writeInt(maxPeasants);
+		out.writeInt(goldDistance);
+		out.writeInt(woodDistance);
+		out.writeInt(table.length);
+		for (int cost : table) {
+			out.writeInt(cost);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads a database written by write.
+	 *
+	 * @return The database
+	 * @throws IOException
+	 *             If the data cannot be read or was not written by write
+	 */
+	public static PatternDatabase read(DataInputStream in) throws IOException {
+		int version = in.readInt();
+		if (version != FORMAT_VERSION) {
+			throw new IOException("Unknown pattern database version "
+					+ version);
+		}
+		int requiredGold = in.readInt();
+		int requiredWood = in.readInt();
+		boolean buildPeasants = in.readBoolean();
+		int maxPeasants = in.readInt();
+		int goldDistance = in.readInt();
+		int woodDistance = in.readInt();
+		int length = in.readInt();
+		int stocks = units(requiredGold) + PEASANT_GOLD_UNITS * MAX_PEASANTS
+				+ 1;
+		if (length != stocks * (units(requiredWood) + 1) * CONFIGS.length) {
+			throw new IOException("Pattern database has " + length
+					+ " entries, which does not fit its goal");
+		}
+		int[] table = new int[length];
+		for (int i = 0; i < length; i++) {
+			table[i] = in.readInt();
+		}
+		return new PatternDatabase(requiredGold, requiredWood, buildPeasants,
+				maxPeasants, goldDistance, woodDistance, table);
+	}
+
+	private int index(int stock, int wood, int config) {
+		return (stock * (woodUnits + 1) + wood) * CONFIGS.length + config;
+	}
+
+	/**
+	 * Dijkstra's algorithm from the goal states over the reversed abstract
+	 * actions. The reversed graph is stored in compressed rows: the edges
+	 * into state i are at edgeStart[i] to edgeStart[i + 1] - 1. States no goal
+	 * can be reached from keep Integer.MAX_VALUE.
+	 */
+	private int[] solve() {
+		int states = (maxStock + 1) * (woodUnits + 1) * CONFIGS.length;
+		int[] edgeStart = new int[states + 1];
+		forEachEdge((from, to, cost) -> edgeStart[to + 1]++);
+		for (int i = 0; i < states; i++) {
+			edgeStart[i + 1] += edgeStart[i];
+		}
+		int[] edgeFrom = new int[edgeStart[states]];
+		int[] edgeCost = new int[edgeStart[states]];
+		int[] next = Arrays.copyOf(edgeStart, states);
+		forEachEdge((from, to, cost) -> {
+			edgeFrom[next[to]] = from;
+			edgeCost[next[to]++] = cost;
+		});
+
+		int[] distance = new int[states];
+		Arrays.fill(distance, Integer.MAX_VALUE);
+		PriorityQueue<Long> queue = new PriorityQueue<Long>();
+		for (int stock = goldUnits; stock <= maxStock; stock++) {
+			for (int config = 0; config < CONFIGS.length; config++) {
+				distance[index(stock, 0, config)] = 0;
+				queue.add((long) index(stock, 0, config));
+			}
+		}
+		while (!queue.isEmpty()) {
+			long entry = queue.poll();
+			int state = (int) entry;
+			int cost = (int) (entry >>> 32);
+			if (cost > distance[state]) {
+				continue;
+			}
+			for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+				int from = edgeFrom[e];
+				int newCost = cost + edgeCost[e];
+				if (newCost < distance[from]) {
+					distance[from] = newCost;
+					queue.add(((long) newCost << 32) | from);
+				}
+			}
+		}
+		return distance;
+	}
+
+	private interface EdgeVisitor {
+		void visit(int from, int to, int cost);
+	}
+
+	/**
+	 * Generates every abstract action from every abstract state that is not a
+	 * goal. Groups of up to maxPeasants peasants act together, like the
+	 * grounded actions.
+	 */
+	private void forEachEdge(EdgeVisitor visitor) {
+		for (int stock = 0; stock <= maxStock; stock++) {
+			for (int wood = 0; wood <= woodUnits; wood++) {
+				if (stock >= goldUnits && wood == 0) {
+					continue;
+				}
+				for (int config = 0; config < CONFIGS.length; config++) {
+					int from = index(stock, wood, config);
+					int[] c = CONFIGS[config];
+					int peasants = 0;
+					for (int count : c) {
+						peasants += count;
+					}
+					for (int k = 1; k <= maxPeasants; k++) {
+						if (goldDistance >= 0) {
+							move(visitor, from, stock, wood, c, k, EMPTY_HOME,
+									EMPTY_AT_GOLD, goldDistance);
+							move(visitor, from, stock, wood, c, k, GOLD_AWAY,
+									GOLD_HOME, goldDistance);
+						}
+						if (woodDistance >= 0) {
+							move(visitor, from, stock, wood, c, k, EMPTY_HOME,
+									EMPTY_AT_WOOD, woodDistance);
+							move(visitor, from, stock, wood, c, k, WOOD_AWAY,
+									WOOD_HOME, woodDistance);
+						}
+						// The stock plus what is gathered must stay within
+						// the requirement
+						if (stock + k <= goldUnits) {
+							move(visitor, from, stock, wood, c, k,
+									EMPTY_AT_GOLD, GOLD_AWAY, 1);
+						}
+						if (k <= wood) {
+							move(visitor, from, stock, wood, c, k,
+									EMPTY_AT_WOOD, WOOD_AWAY, 1);
+						}
+						// A deposit takes any k carriers at the town hall
+						for (int golds = 0; golds <= k; golds++) {
+							int woods = k - golds;
+							if (golds <= c[GOLD_HOME] && woods <= c[WOOD_HOME]) {
+								int[] after = c.clone();
+								after[GOLD_HOME] -= golds;
+								after[WOOD_HOME] -= woods;
+								after[EMPTY_HOME] += k;
+								visitor.visit(from, index(
+										Math.min(maxStock, stock + golds),
+										Math.max(0, wood - woods),
+										configOf(after)), 1);
+							}
+						}
+					}
+					if (buildPeasants && peasants < maxPeasants
+							&& stock >= PEASANT_GOLD_UNITS) {
+						int[] after = c.clone();
+						after[EMPTY_HOME]++;
+						visitor.visit(from, index(stock - PEASANT_GOLD_UNITS,
+								wood, configOf(after)), 1);
+					}
+				}
+			}
+		}
+	}
+
+	private void move(EdgeVisitor visitor, int from, int stock, int wood,
+			int[] counts, int k, int fromKind, int toKind, int cost) {
+		if (counts[fromKind] < k) {
+			return;
+		}
+		int[] after = counts.clone();
+		after[fromKind] -= k;
+		after[toKind] += k;
+		visitor.visit(from, index(stock, wood, configOf(after)), cost);
+	}
+
+	/**
+	 * Peasants next to the town hall count as at the town hall, the others
+	 * are at the resource they stand on.
+	 */
+	private static int kindOf(GameState state, Position townHall,
+			PeasantState peasant) {
+		boolean home = peasant.getPosition().chebyshevDistance(townHall) <= 1;
+		if (peasant.getCargoAmount() > 0) {
+			if (peasant.getCargoType() == ResourceType.GOLD) {
+				return home ? GOLD_HOME : GOLD_AWAY;
+			}
+			return home ? WOOD_HOME : WOOD_AWAY;
+		}
+		if (home) {
+			return EMPTY_HOME;
+		}
+		ResourceState resource = state.getResourceByPosition(peasant
+				.getPosition());
+		if (resource == null) {
+			return EMPTY_HOME;
+		}
+		return resource.getType() == ResourceType.GOLD ? EMPTY_AT_GOLD
+				: EMPTY_AT_WOOD;
+	}
+
+	private static int units(int amount) {
+		return (amount + 99) / 100;
+	}
+
+	private static int configOf(int[] counts) {
+		int packed = 0;
+		for (int kind = 0; kind < KINDS; kind++) {
+			if (counts[kind] > MAX_PEASANTS) {
+				return -1;
+			}
+			packed |= counts[kind] << (2 * kind);
+		}
+		return CONFIG_INDEX[packed];
+	}
+
+	private static int[] unpack(int packed) {
+		int[] counts = new int[KINDS];
+		for (int kind = 0; kind < KINDS; kind++) {
+			counts[kind] = (packed >>> (2 * kind)) & 3;
+		}
+		return counts;
+	}
+}
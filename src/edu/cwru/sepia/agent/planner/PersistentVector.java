@@ -0,0 +1,250 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiPredicate;
+
+/**
+ * An immutable list stored as a tree with up to 32 children per node.
+ * Changing or adding an element copies only the nodes on the path from the
+ * root to that element, every other node is shared with the vector it was
+ * made from. A successor GameState that changes one resource therefore only
+ * needs O(log n) new memory instead of a copy of every resource.
+ *
+ * @param <T>
+ *            The type of the elements
+ */
+public final class PersistentVector<T> implements Iterable<T> {
+
+	private static final int BITS = 5;
+	private static final int WIDTH = 1 << BITS;
+	private static final int MASK = WIDTH - 1;
+
+	private static final PersistentVector<Object> EMPTY = new PersistentVector<Object>(
+			0, 0, new Object[0]);
+
+	private final int size;
+	// Index bits above the leaves, 0 while the root is itself a leaf
+	private final int shift;
+	private final Object[] root;
+
+	private PersistentVector(int size, int shift, Object[] root) {
+		this.size = size;
+		this.shift = shift;
+		this.root = root;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T> PersistentVector<T> empty() {
+		return (PersistentVector<T>) EMPTY;
+	}
+
+	/**
+	 * Builds a vector holding the given elements in iteration order.
+	 */
+	public static <T> PersistentVector<T> of(Collection<? extends T> elements) {
+		if (elements.isEmpty()) {
+			return empty();
+		}
+		List<Object[]> level = new ArrayList<Object[]>();
+		Object[] values = elements.toArray();
+		for (int i = 0; i < values.length; i += WIDTH) {
+			level.add(Arrays.copyOfRange(values, i,
+					Math.min(values.length, i + WIDTH)));
+		}
+		int shift = 0;
+		while (level.size() > 1) {
+			List<Object[]> parents = new ArrayList<Object[]>();
+			for (int i = 0; i < level.size(); i += WIDTH) {
+				parents.add(level.subList(i, Math.min(level.size(), i + WIDTH))
+						.toArray());
+			}
+			level = parents;
+			shift += BITS;
+		}
+		return new PersistentVector<T>(values.length, shift, level.get(0));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T get(int index) {
+		return (T) leafFor(index)[index & MASK];
+	}
+
+	/**
+	 * @return A vector with the element at the index replaced, sharing all
+	 *         other nodes with this one
+	 */
+	public PersistentVector<T> set(int index, T value) {
+		if (get(index) == value) {
+			return this;
+		}
+		return new PersistentVector<T>(size, shift, set(root, shift, index,
+				value));
+	}
+
+	/**
+	 * @return A vector with the value added at the end, sharing all full
+	 *         nodes with this one
+	 */
+	public PersistentVector<T> append(T value) {
+		if (size == 1 << (shift + BITS)) {
+			// The tree is full, grow a new root above it
+			Object[] newRoot = new Object[] { root, path(shift, value) };
+			return new PersistentVector<T>(size + 1, shift + BITS, newRoot);
+		}
+		return new PersistentVector<T>(size + 1, shift, append(root, shift,
+				size, value));
+	}
+
+	/**
+	 * Compares two vectors element by element. Subtrees the vectors share are
+	 * skipped without looking at them, so comparing a state with a close
+	 * relative only costs as much as the nodes that differ.
+	 *
+	 * @param other
+	 *            The vector to compare with
+	 * @param same
+	 *            Whether two elements at the same index count as equal
+	 * @return true if the vectors have the same size and every pair of
+	 *         elements is the same
+	 */
+	public boolean sameElements(PersistentVector<T> other,
+			BiPredicate<? super T, ? super T> same) {
+		if (size != other.size || shift != other.shift) {
+			return false;
+		}
+		return sameNodes(root, other.root, shift, same);
+	}
+
+	/**
+	 * @return An unmodifiable list backed by this vector
+	 */
+	public List<T> asList() {
+		return new AbstractList<T>() {
+			@Override
+			public T get(int index) {
+				return PersistentVector.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public Iterator<T> iterator() {
+				return PersistentVector.this.iterator();
+			}
+		};
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private int index = 0;
+			private Object[] leaf;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public T next() {
+				if (index >= size) {
+					throw new NoSuchElementException();
+				}
+				if ((index & MASK) == 0) {
+					leaf = leafFor(index);
+				}
+				return (T) leaf[index++ & MASK];
+			}
+		};
+	}
+
+	private Object[] leafFor(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index
+					+ " out of bounds for size " + size);
+		}
+		Object[] node = root;
+		for (int level = shift; level > 0; level -= BITS) {
+			node = (Object[]) node[(index >>> level) & MASK];
+		}
+		return node;
+	}
+
+	private static Object[] set(Object[] node, int level, int index,
+			Object value) {
+		Object[] copy = node.clone();
+		if (level == 0) {
+			copy[index & MASK] = value;
+		} else {
+			int child = (index >>> level) & MASK;
+			copy[child] = set((Object[]) node[child], level - BITS, index,
+					value);
+		}
+		return copy;
+	}
+
+	private static Object[] append(Object[] node, int level, int index,
+			Object value) {
+		int child = (index >>> level) & MASK;
+		Object[] copy;
+		if (level == 0) {
+			copy = Arrays.copyOf(node, child + 1);
+			copy[child] = value;
+		} else if (child < node.length) {
+			copy = node.clone();
+			copy[child] = append((Object[]) node[child], level - BITS, index,
+					value);
+		} else {
+			copy = Arrays.copyOf(node, child + 1);
+			copy[child] = path(level - BITS, value);
+		}
+		return copy;
+	}
+
+	private static Object[] path(int level, Object value) {
+		if (level == 0) {
+			return new Object[] { value };
+		}
+		return new Object[] { path(level - BITS, value) };
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> boolean sameNodes(Object[] a, Object[] b, int level,
+			BiPredicate<? super T, ? super T> same) {
+		if (a == b) {
+			return true;
+		}
+		if (a.length != b.length) {
+			return false;
+		}
+		for (int i = 0; i < a.length; i++) {
+			if (level == 0) {
+				if (!same.test((T) a[i], (T) b[i])) {
+					return false;
+				}
+			} else if (!sameNodes((Object[]) a[i], (Object[]) b[i], level
+					- BITS, same)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
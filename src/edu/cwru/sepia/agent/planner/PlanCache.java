@@ -0,0 +1,269 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Stack;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.cwru.sepia.agent.planner.actions.DepositStripsAction;
+import edu.cwru.sepia.agent.planner.actions.GatherStripsAction;
+import edu.cwru.sepia.agent.planner.actions.HarvestCycleStripsAction;
+import edu.cwru.sepia.agent.planner.actions.MoveStripsAction;
+import edu.cwru.sepia.agent.planner.actions.ProductionStripsAction;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+/**
+ * Stores plans on disk so that an episode that starts from the same state as
+ * an earlier one does not have to search again. Each plan is kept in its own
+ * file named after a fingerprint of the initial GameState, the goal and the
+ * planner settings that shape the plan, with one action per line in the form
+ * written by StripsAction.toString. A plan found with one heuristic or
+ * algorithm is therefore never handed out for another.
+ *
+ * A cached plan is replayed against the initial state before it is used, so a
+ * stale or damaged file only costs a new search.
+ */
+public class PlanCache {
+
+	private static final Pattern ACTION = Pattern
+			.compile("\\s*(\\w+)\\(([^)]*)\\)\\s*");
+
+	private final File directory;
+	private final String settings;
+
+	/**
+	 * @param directory
+	 *            Directory holding the cached plans, created when the first
+	 *            plan is stored
+	 * @param settings
+	 *            The planner settings the plans are searched with, such as the
+	 *            algorithm and the heuristic, in a fixed order
+	 */
+	public PlanCache(File directory, String settings) {
+		this.directory = directory;
+		this.settings = settings;
+	}
+
+	/**
+	 * Looks up a plan for the given initial state.
+	 *
+	 * @param initialState
+	 *            The state which is being planned from
+	 * @return The cached plan, with the first action on top, or null if there
+	 *         is no valid plan for this state
+	 */
+	public Stack<StripsAction> load(GameState initialState) {
+		File planFile = fileFor(initialState);
+		if (!planFile.isFile()) {
+			return null;
+		}
+
+		List<StripsAction> actions = new ArrayList<StripsAction>();
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(planFile));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				StripsAction action = parseAction(line, initialState);
+				if (action == null) {
+					System.err.println("Ignoring cached plan " + planFile
+							+ ", cannot read action " + line);
+					return null;
+				}
+				actions.add(action);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		if (!reachesGoal(initialState, actions)) {
+			System.err.println("Ignoring cached plan " + planFile
+					+ ", it does not reach the goal");
+			return null;
+		}
+
+		System.out.println("Using cached plan " + planFile);
+		Stack<StripsAction> plan = new Stack<StripsAction>();
+		Collections.reverse(actions);
+		plan.addAll(actions);
+		return plan;
+	}
+
+	/**
+	 * Writes a plan for the given initial state, replacing any plan already
+	 * cached for it.
+	 *
+	 * @param initialState
+	 *            The state the plan starts from
+	 * @param plan
+	 *            The plan with the first action on top, it is not modified
+	 */
+	public void store(GameState initialState, Stack<StripsAction> plan) {
+		directory.mkdirs();
+		File planFile = fileFor(initialState);
+
+		PrintWriter outputWriter = null;
+		try {
+			outputWriter = new PrintWriter(planFile);
+			for (int i = plan.size() - 1; i >= 0; i--) {
+				outputWriter.println(plan.get(i).toString());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (outputWriter != null)
+				outputWriter.close();
+		}
+	}
+
+	/**
+	 * Builds a fingerprint of everything the plan depends on: the planner
+	 * settings, the goal, the map size, the town hall, the stored resources,
+	 * every peasant and every resource node with its remaining amount.
+	 *
+	 * @param state
+	 *            The initial state
+	 * @param settings
+	 *            The planner settings the plan is searched with
+	 * @return A hex string identifying the state and settings
+	 */
+	public static String fingerprint(GameState state, String settings) {
+		StringBuilder description = new StringBuilder();
+		description.append("settings ").append(settings).append('\n');
+		description.append("goal ").append(state.getRequiredGold())
+				.append(' ').append(state.getRequiredWood()).append(' ')
+				.append(state.isBuildPeasants()).append('\n');
+		description.append("map ").append(state.getXExtent()).append(' ')
+				.append(state.getYExtent()).append('\n');
+		description.append("townhall ").append(state.getTownHallID())
+				.append(' ').append(state.getTownHallPosition()).append('\n');
+		description.append("stock ").append(state.getCurrentGold())
+				.append(' ').append(state.getCurrentWood()).append('\n');
+
+		List<String> lines = new ArrayList<String>();
+		for (PeasantState peasant : state.getPeasants()) {
+			lines.add("peasant " + peasant.getId() + ' '
+					+ peasant.getCargoAmount() + ' ' + peasant.getCargoType()
+					+ ' ' + peasant.getPosition());
+		}
+		for (ResourceState resource : state.getResources()) {
+			lines.add("resource " + resource.getResourceId() + ' '
+					+ resource.getType() + ' ' + resource.getPostion() + ' '
+					+ resource.getRemaining());
+		}
+		Collections.sort(lines);
+		for (String line : lines) {
+			description.append(line).append('\n');
+		}
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(description.toString().getBytes(
+					StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (int i = 0; i < 16; i++) {
+				hex.append(String.format("%02x", hash[i]));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private File fileFor(GameState initialState) {
+		return new File(directory, fingerprint(initialState, settings) + ".plan");
+	}
+
+	private static boolean reachesGoal(GameState initialState,
+			List<StripsAction> actions) {
+		GameState state = initialState;
+		for (StripsAction action : actions) {
+			if (!action.preconditionsMet(state)) {
+				return false;
+			}
+			state = action.apply(state);
+		}
+		return state.isGoal();
+	}
+
+	/**
+	 * Parses one action written by StripsAction.toString.
+	 *
+	 * @param line
+	 *            The text of the action
+	 * @param initialState
+	 *            The state the plan starts from, which gives the move costs
+	 * @return The action or null if the line is not a known action
+	 */
+	private static StripsAction parseAction(String line,
+			GameState initialState) {
+		Matcher matcher = ACTION.matcher(line);
+		if (!matcher.matches()) {
+			return null;
+		}
+		String name = matcher.group(1);
+		String arguments = matcher.group(2).trim();
+		int[] args;
+		try {
+			String[] parts = arguments.isEmpty() ? new String[0] : arguments
+					.split(",");
+			args = new int[parts.length];
+			for (int i = 0; i < parts.length; i++) {
+				args[i] = Integer.parseInt(parts[i].trim());
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+
+		if ((name.equals("Move") || name.equals("HarvestCycle"))
+				&& args.length == 5) {
+			Position start = new Position(args[1], args[2]);
+			Position finish = new Position(args[3], args[4]);
+			int cost;
+			try {
+				cost = initialState.getDistances().moveCost(start, finish);
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+			if (cost == DistanceTable.UNREACHABLE) {
+				return null;
+			}
+			if (name.equals("HarvestCycle")) {
+				return new HarvestCycleStripsAction(args[0], start, finish, cost);
+			}
+			return new MoveStripsAction(args[0], start, finish, cost);
+		} else if (name.equals("Gather") && args.length == 3) {
+			return new GatherStripsAction(args[0], new Position(args[1],
+					args[2]));
+		} else if (name.equals("Deposit") && args.length == 3) {
+			return new DepositStripsAction(args[0], new Position(args[1],
+					args[2]));
+		} else if (name.equals("BuildPeasant") && args.length == 0) {
+			return new ProductionStripsAction();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,179 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+import java.util.function.Supplier;
+
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+/**
+ * Repairs the plan when its execution goes wrong, for example when a
+ * resource runs out before a gather or a deposit fails. It keeps the states
+ * the plan goes through, rebuilt by applying the plan's actions to the start
+ * state, and looks up the state the game is actually in among them. If the
+ * game is in one of them the rest of the plan from there is still good, see
+ * resume. Otherwise a small A* search from the actual state looks for the
+ * nearest state of the plan, or for a goal, and the path to it is put in
+ * front of the rest of the plan, see repair.
+ *
+ * Incremental searches like LPA* and D* Lite keep the distances of a
+ * backward search to one goal, which stay valid while the start moves. The
+ * planner searches forward to any of many goals, and nothing of its search
+ * is kept: no open or closed list, no g values. Only the plan's states are,
+ * from which the rest of the plan is known to reach a goal. Any of them ends
+ * the repair search, which is usually a few actions away from the plan.
+ *
+ * The repair search estimates states with the heuristic of the state it
+ * starts from and searches its grounded actions, so the actual state should
+ * descend from the planner's start state.
+ */
+public class PlanRepair {
+
+	private final int nodeLimit;
+	private final Supplier<? extends OpenList> frontier;
+	// The actions of the plan, action i leads from state i to state i + 1
+	private List<StripsAction> actions;
+	// The states of the plan, by the number of actions that lead to them
+	private Map<GameState, Integer> steps;
+	private int repairs;
+	private long expanded;
+
+	/**
+	 * @param start
+	 *            The state the plan starts from
+	 * @param plan
+	 *            The plan, with the first action on top
+	 * @param nodeLimit
+	 *            The most states a repair search may expand
+	 * @param frontier
+	 *            Creates the open list of each repair search
+	 */
+	public PlanRepair(GameState start, Stack<StripsAction> plan,
+			int nodeLimit, Supplier<? extends OpenList> frontier) {
+		this.nodeLimit = nodeLimit;
+		this.frontier = frontier;
+		follow(start, plan);
+	}
+
+	/**
+	 * Replaces the states of the plan with the states the given plan goes
+	 * through from the given state.
+	 */
+	private void follow(GameState start, Stack<StripsAction> plan) {
+		actions = new ArrayList<StripsAction>();
+		steps = new HashMap<GameState, Integer>();
+		GameState state = start;
+		steps.put(state, 0);
+		for (int i = plan.size() - 1; i >= 0; i--) {
+			StripsAction action = plan.get(i);
+			if (!action.preconditionsMet(state)) {
+				break;
+			}
+			state = action.apply(state);
+			actions.add(action);
+			// A plan that comes back to a state is resumed at its last visit
+			steps.put(state, actions.size());
+		}
+	}
+
+	/**
+	 * Picks the plan up again at the given state, if it is one of the
+	 * states the plan goes through.
+	 *
+	 * @param actual
+	 *            The state the game is in
+	 * @return The rest of the plan from that state, with the first action on
+	 *         top, or null if the game has left the plan
+	 */
+	public Stack<StripsAction> resume(GameState actual) {
+		Integer step = steps.get(actual);
+		return step == null ? null : rest(step);
+	}
+
+	/**
+	 * Finds a plan from the given state. The plan of the repair is followed
+	 * from then on, so a later repair gets back on it.
+	 *
+	 * @param actual
+	 *            The state the game is in
+	 * @return The plan, with the first action on top, or null if none was
+	 *         found within the node limit
+	 */
+	public Stack<StripsAction> repair(GameState actual) {
+		repairs++;
+		Stack<StripsAction> plan;
+		Integer step = steps.get(actual);
+		if (step != null) {
+			plan = rest(step);
+		} else {
+			plan = search(actual);
+		}
+		if (plan != null) {
+			follow(actual, plan);
+		}
+		return plan;
+	}
+
+	/**
+	 * @return The actions of the plan from the given step on
+	 */
+	private Stack<StripsAction> rest(int step) {
+		Stack<StripsAction> plan = new Stack<StripsAction>();
+		for (int i = actions.size() - 1; i >= step; i--) {
+			plan.push(actions.get(i));
+		}
+		return plan;
+	}
+
+	/**
+	 * A* from the given state to the nearest state of the plan or a goal.
+	 *
+	 * @return The path followed by the rest of the plan, or null
+	 */
+	private Stack<StripsAction> search(GameState actual) {
+		OpenList openList = frontier.get();
+		Set<GameState> closedList = new HashSet<GameState>();
+		openList.add(actual);
+		int limit = nodeLimit;
+		while (!openList.isEmpty() && limit-- > 0) {
+			GameState current = openList.poll();
+			Integer step = steps.get(current);
+			if (step != null || current.isGoal()) {
+				Stack<StripsAction> plan = step == null ? new Stack<StripsAction>()
+						: rest(step);
+				for (GameState state = current; state != actual; state = state
+						.getParent()) {
+					plan.push(state.getPreviousAction());
+				}
+				return plan;
+			}
+			closedList.add(current);
+			expanded++;
+			for (GameState neighbor : current.generateChildren()) {
+				if (!closedList.contains(neighbor)) {
+					openList.add(neighbor);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The number of repairs so far
+	 */
+	public int getRepairs() {
+		return repairs;
+	}
+
+	/**
+	 * @return The number of states the repair searches expanded so far
+	 */
+	public long getExpanded() {
+		return expanded;
+	}
+}
@@ -1,17 +1,25 @@
 package edu.cwru.sepia.agent.planner;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.Stack;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import edu.cwru.sepia.action.Action;
 import edu.cwru.sepia.agent.Agent;
 import edu.cwru.sepia.agent.planner.actions.StripsAction;
@@ -26,6 +34,17 @@ public class PlannerAgent extends Agent {
 	final int requiredWood;
 	final int requiredGold;
 	final boolean buildPeasants;
+	// Optional settings given as extra key=value arguments after the three
+	// required ones, e.g. <Argument>tiebreak=LOW_G</Argument>
+	final Map<String, String> options;
+	final TieBreaker tieBreaker;
+	// Counters of the last search, whichever algorithm ran it
+	SearchMetrics metrics;
+	// Times the heuristic of the last start state, see createStartState
+	TimedHeuristic heuristicTimer;
+	// Built or loaded when the pdb heuristic is used, kept by
+	// savePlayerData for later episodes
+	PatternDatabase patternDatabase;
 
 	// Your PEAgent implementation. This prevents you from having to parse the
 	// text file representation of your plan.
@@ -42,18 +61,68 @@ public class PlannerAgent extends Agent {
 		requiredGold = Integer.parseInt(params[0]);
 		requiredWood = Integer.parseInt(params[1]);
 		buildPeasants = Boolean.parseBoolean(params[2]);
+		options = parseOptions(params);
+		tieBreaker = TieBreaker.valueOf(getOption("tiebreak", "HIGH_G")
+				.toUpperCase());
 
 		System.out.println("required gold: " + requiredGold
 				+ " required wood: " + requiredWood + " build Peasants: "
 				+ buildPeasants);
+		if (!options.isEmpty()) {
+			System.out.println("planner options: " + options);
+		}
+	}
+
+	private static Map<String, String> parseOptions(String[] params) {
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 3; i < params.length; i++) {
+			String[] keyValue = params[i].split("=", 2);
+			if (keyValue.length != 2) {
+				System.err.println("Ignoring planner argument " + params[i]
+						+ ", expected key=value");
+				continue;
+			}
+			options.put(keyValue[0].trim().toLowerCase(), keyValue[1].trim());
+		}
+		return options;
+	}
+
+	private String getOption(String key, String defaultValue) {
+		String value = options.get(key);
+		return value == null ? defaultValue : value;
 	}
 
 	@Override
 	public Map<Integer, Action> initialStep(State.StateView stateView,
 			History.HistoryView historyView) {
 
-		Stack<StripsAction> plan = AstarSearch(new GameState(stateView,
-				playernum, requiredGold, requiredWood, buildPeasants));
+		if (Boolean.parseBoolean(getOption("heuristicreport", "false"))) {
+			reportHeuristics(stateView);
+		}
+
+		GameState startState = createStartState(stateView);
+
+		// Reuse the plan of an earlier episode that started from the same
+		// state with the same settings, unless the plan cache is turned off
+		PlanCache planCache = null;
+		if (Boolean.parseBoolean(getOption("plancache", "true"))) {
+			planCache = new PlanCache(new File("saves", "plans"),
+					planSettings());
+		}
+		Stack<StripsAction> plan = null;
+		if (planCache != null) {
+			plan = planCache.load(startState);
+		}
+		if (plan != null) {
+			metrics = new SearchMetrics();
+			metrics.planned(getOption("algorithm", "astar"), getOption(
+					"heuristic", "classic"), true, 0, plan);
+		} else {
+			plan = search(startState);
+			if (plan != null && planCache != null) {
+				planCache.store(startState, plan);
+			}
+		}
 
 		if (plan == null) {
 			System.err.println("No plan was found");
@@ -63,10 +132,23 @@ public class PlannerAgent extends Agent {
 
 		// write the plan to a text file
 		savePlan(plan);
+		saveMetrics();
+		publishMetrics();
+
+		// The plan is repaired when its execution goes wrong, unless repairs
+		// are turned off. A repair search expands at most repairnodes states
+		// and uses the same heuristic, actions and frontier as the planner.
+		PlanRepair planRepair = null;
+		if (Boolean.parseBoolean(getOption("repair", "true"))) {
+			planRepair = new PlanRepair(startState, plan,
+					Integer.parseInt(getOption("repairnodes", "100000")),
+					this::createOpenList);
+		}
 
-		// Instantiates the PEAgent with the specified plan.
+		// Instantiates the PEAgent with the specified plan. It follows the
+		// game from the start state of the plan.
 		peAgent = new PEAgent(playernum, plan, requiredWood, requiredGold,
-				buildPeasants);
+				buildPeasants, startState, planRepair);
 
 		return peAgent.initialStep(stateView, historyView);
 	}
@@ -88,14 +170,279 @@ public class PlannerAgent extends Agent {
 
 	}
 
+	/**
+	 * Saves the pattern database, if one was used, so that later episodes of
+	 * the same scenario do not have to build it again.
+	 */
 	@Override
 	public void savePlayerData(OutputStream outputStream) {
-
+		try {
+			DataOutputStream out = new DataOutputStream(outputStream);
+			out.writeBoolean(patternDatabase != null);
+			if (patternDatabase != null) {
+				patternDatabase.write(out);
+			}
+			out.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	@Override
 	public void loadPlayerData(InputStream inputStream) {
+		try {
+			DataInputStream in = new DataInputStream(inputStream);
+			if (in.readBoolean()) {
+				patternDatabase = PatternDatabase.read(in);
+			}
+		} catch (IOException e) {
+			System.err.println("Cannot load the saved pattern database: "
+					+ e.getMessage());
+		}
+	}
 
+	/**
+	 * Describes the options that change which plan is found, with their
+	 * defaults filled in, for the fingerprint of the plan cache.
+	 *
+	 * @return The settings in a fixed order
+	 */
+	private String planSettings() {
+		return "algorithm=" + getOption("algorithm", "astar").toLowerCase()
+				+ " heuristic=" + getOption("heuristic", "classic").toLowerCase()
+				+ " harvestcycles="
+				+ Boolean.parseBoolean(getOption("harvestcycles", "false"))
+				+ " tiebreak=" + tieBreaker + " frontier="
+				+ getOption("frontier", "heap").toLowerCase() + " weight="
+				+ Double.parseDouble(getOption("weight", "3")) + " weightstep="
+				+ Double.parseDouble(getOption("weightstep", "0.5"))
+				+ " budgetms=" + Long.parseLong(getOption("budgetms", "1000"));
+	}
+
+	/**
+	 * Builds the state the search starts from, with the heuristic chosen by
+	 * the heuristic option and harvest cycles if the harvestcycles option is
+	 * true. The heuristic is timed for the metrics of the search.
+	 *
+	 * @param stateView
+	 *            The state which is being planned from
+	 * @return The start state of the search
+	 */
+	GameState createStartState(State.StateView stateView) {
+		heuristicTimer = new TimedHeuristic(createHeuristic(getOption(
+				"heuristic", "classic"), stateView));
+		return new GameState(stateView, playernum, requiredGold, requiredWood,
+				buildPeasants, heuristicTimer, Boolean.parseBoolean(getOption(
+						"harvestcycles", "false")));
+	}
+
+	/**
+	 * Creates a heuristic by name, as given by the heuristic option. classic
+	 * is the hand tuned ClassicHeuristic, relaxed the RelaxedPlanHeuristic,
+	 * nearest the NearestResourceHeuristic and pdb the PatternDatabase of the
+	 * scenario.
+	 *
+	 * @param name
+	 *            The name of the heuristic
+	 * @param stateView
+	 *            The state which is being planned from
+	 * @return The heuristic
+	 */
+	private Heuristic createHeuristic(String name, State.StateView stateView) {
+		switch (name.toLowerCase()) {
+		case "classic":
+			return new ClassicHeuristic();
+		case "relaxed":
+			return new RelaxedPlanHeuristic();
+		case "nearest":
+			return new NearestResourceHeuristic();
+		case "pdb":
+			return patternDatabaseFor(stateView);
+		default:
+			throw new IllegalArgumentException("Unknown heuristic " + name
+					+ ", expected classic, relaxed, nearest or pdb");
+		}
+	}
+
+	/**
+	 * Reuses the pattern database from loadPlayerData if it was built for
+	 * this scenario, otherwise builds a new one.
+	 *
+	 * @param stateView
+	 *            The state which is being planned from
+	 * @return The pattern database of the scenario
+	 */
+	private PatternDatabase patternDatabaseFor(State.StateView stateView) {
+		GameState scenario = new GameState(stateView, playernum, requiredGold,
+				requiredWood, buildPeasants);
+		if (patternDatabase != null && patternDatabase.matches(scenario)) {
+			System.out.println("Using the saved pattern database");
+			return patternDatabase;
+		}
+		long start = System.nanoTime();
+		patternDatabase = PatternDatabase.build(scenario);
+		System.out.println("Built a pattern database of "
+				+ patternDatabase.size() + " states in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		return patternDatabase;
+	}
+
+	/**
+	 * Runs the serial A* search once with every heuristic and prints how many
+	 * states each one expanded and the cost of the plan it found.
+	 *
+	 * @param stateView
+	 *            The state which is being planned from
+	 */
+	private void reportHeuristics(State.StateView stateView) {
+		for (String name : new String[] { "classic", "relaxed", "nearest", "pdb" }) {
+			GameState startState = new GameState(stateView, playernum,
+					requiredGold, requiredWood, buildPeasants,
+					createHeuristic(name, stateView));
+			long start = System.nanoTime();
+			Stack<StripsAction> plan = AstarSearch(startState);
+			long millis = (System.nanoTime() - start) / 1000000;
+			int cost = 0;
+			if (plan != null) {
+				for (StripsAction action : plan) {
+					cost += action.getActionCost();
+				}
+			}
+			System.out.println("Heuristic " + name + " expanded "
+					+ metrics.getExpanded() + " states in " + millis
+					+ " ms, plan cost "
+					+ (plan == null ? "none" : String.valueOf(cost)));
+		}
+	}
+
+	/**
+	 * Runs the search algorithm selected with the algorithm option. The
+	 * default is the serial A* search, hda runs the hash distributed A*
+	 * search on the number of threads given by the threads option, ara runs
+	 * the anytime ARA* search within the budgetms time budget and ida runs
+	 * the memory bounded IDA* search keeping at most nodecap states. The
+	 * counters of the search are left in metrics. Every algorithm gives up
+	 * when the thread is interrupted.
+	 *
+	 * @param startState
+	 *            The state which is being planned from
+	 * @return The plan or null if no plan is found.
+	 */
+	Stack<StripsAction> search(GameState startState) {
+		String algorithm = getOption("algorithm", "astar").toLowerCase();
+		long heuristicNanos = heuristicTimer == null ? 0 : heuristicTimer
+				.getNanos();
+		long start = System.nanoTime();
+		Stack<StripsAction> plan;
+		switch (algorithm) {
+		case "astar":
+			plan = AstarSearch(startState);
+			break;
+		case "hda":
+			plan = hdaSearch(startState);
+			break;
+		case "ara":
+			plan = araSearch(startState);
+			break;
+		case "ida":
+			plan = idaSearch(startState);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown algorithm "
+					+ algorithm + ", expected astar, hda, ara or ida");
+		}
+		if (heuristicTimer != null) {
+			metrics.setHeuristicNanos(heuristicTimer.getNanos()
+					- heuristicNanos);
+		}
+		metrics.planned(algorithm, getOption("heuristic", "classic"), false,
+				System.nanoTime() - start, plan);
+		if (algorithm.equals("hda")
+				&& Boolean.parseBoolean(getOption("reportspeedup", "false"))) {
+			reportSpeedup(startState, metrics.getSearchNanos());
+		}
+		return plan;
+	}
+
+	/**
+	 * Plans with HdaStarSearch. Each worker uses the frontier selected with
+	 * the frontier option.
+	 *
+	 * @param startState
+	 *            The state which is being planned from
+	 * @return The plan or null if no plan is found.
+	 */
+	private Stack<StripsAction> hdaSearch(GameState startState) {
+		int threads = Integer.parseInt(getOption("threads",
+				String.valueOf(Runtime.getRuntime().availableProcessors())));
+		HdaStarSearch hda = new HdaStarSearch(threads, this::createOpenList,
+				frontierOrder());
+
+		long start = System.nanoTime();
+		GameState goal = hda.search(startState);
+		System.out.println("HDA* with " + threads + " threads expanded "
+				+ hda.getExpandedCount() + " states in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		metrics = hda.getMetrics();
+		return goal == null ? null : buildPath(goal, startState);
+	}
+
+	/**
+	 * Runs the serial A* search on the same state as the HDA* search and
+	 * prints the speedup, for the reportspeedup option. The serial search
+	 * counts into its own metrics, so those of the HDA* search are kept.
+	 *
+	 * @param startState
+	 *            The state which was planned from
+	 * @param parallelNanos
+	 *            The wall time of the HDA* search
+	 */
+	private void reportSpeedup(GameState startState, long parallelNanos) {
+		long start = System.nanoTime();
+		AstarSearch(startState, new SearchMetrics());
+		long serialNanos = System.nanoTime() - start;
+		System.out.println("Serial A* took " + serialNanos / 1000000
+				+ " ms, HDA* speedup "
+				+ String.format("%.2f", (double) serialNanos / parallelNanos));
+	}
+
+	/**
+	 * Plans with AraStarSearch. The first weighted plan is improved until the
+	 * budgetms option runs out, starting from the weight option and lowering
+	 * it by weightstep after each pass.
+	 *
+	 * @param startState
+	 *            The state which is being planned from
+	 * @return The best plan found or null if no plan is found.
+	 */
+	private Stack<StripsAction> araSearch(GameState startState) {
+		AraStarSearch ara = new AraStarSearch(Double.parseDouble(getOption(
+				"weight", "3")), Double.parseDouble(getOption("weightstep",
+				"0.5")), Long.parseLong(getOption("budgetms", "1000")),
+				tieBreaker);
+		GameState goal = ara.search(startState);
+		metrics = ara.getMetrics();
+		System.out.println("ARA* expanded " + ara.getExpandedCount()
+				+ " states");
+		return goal == null ? null : buildPath(goal, startState);
+	}
+
+	/**
+	 * Plans with IdaStarSearch, keeping at most the nodecap option states in
+	 * its transposition table.
+	 *
+	 * @param startState
+	 *            The state which is being planned from
+	 * @return The plan or null if no plan is found.
+	 */
+	private Stack<StripsAction> idaSearch(GameState startState) {
+		IdaStarSearch ida = new IdaStarSearch(Integer.parseInt(getOption(
+				"nodecap", "1000000")), tieBreaker);
+		GameState goal = ida.search(startState);
+		metrics = ida.getMetrics();
+		System.out.println("IDA* expanded " + ida.getExpandedCount()
+				+ " states in " + ida.getIterationCount() + " iterations");
+		return goal == null ? null : buildPath(goal, startState);
 	}
 
 	/**
@@ -108,17 +455,33 @@ public class PlannerAgent extends Agent {
 	 *            The state which is being planned from
 	 * @return The plan or null if no plan is found.
 	 */
-	private Stack<StripsAction> AstarSearch(GameState startState) {
-		PriorityQueue<GameState> openList = new PriorityQueue<GameState>();
+	Stack<StripsAction> AstarSearch(GameState startState) {
+		metrics = new SearchMetrics();
+		return AstarSearch(startState, metrics);
+	}
+
+	/**
+	 * The A* search, counting into the given metrics.
+	 *
+	 * @param startState
+	 *            The state which is being planned from
+	 * @param metrics
+	 *            The metrics to count the search into
+	 * @return The plan or null if no plan is found.
+	 */
+	private Stack<StripsAction> AstarSearch(GameState startState,
+			SearchMetrics metrics) {
+		OpenList openList = createOpenList();
 		Set<GameState> closedList = new HashSet<GameState>();
 
 		openList.add(startState);
 
 		while (!openList.isEmpty()) {
-			GameState current = openList.poll();
-			if (closedList.contains(current)) {
-				continue;
+			// Give up if the thread was interrupted, e.g. by a time limit
+			if (Thread.currentThread().isInterrupted()) {
+				return null;
 			}
+			GameState current = openList.poll();
 
 			// If at the goal, build the path
 			if (current.isGoal()) {
@@ -127,22 +490,57 @@ public class PlannerAgent extends Agent {
 			}
 			// Add to closed set
 			closedList.add(current);
-			for (GameState neighbor : current.generateChildren()) {
-				// Skip if already evaluated
-				if (!closedList.contains(neighbor)) {
-					// If it doesn't exist with a lower cost already
-					if (!existsWithLowerCost(openList, neighbor)) {
-						openList.remove(neighbor);
-						// Add the neighbor to the open queue
-						openList.add(neighbor);
-					}
+			metrics.closedSize(closedList.size());
+			long start = System.nanoTime();
+			List<GameState> children = current.generateChildren();
+			long generatedAt = System.nanoTime();
+			metrics.expanded(children.size(), generatedAt - start);
+			for (GameState neighbor : children) {
+				// Skip if already evaluated, otherwise add it to the open list
+				// or lower the cost of the copy already there
+				if (closedList.contains(neighbor) || !openList.add(neighbor)) {
+					metrics.duplicate();
 				}
 			}
+			metrics.hashed(System.nanoTime() - generatedAt);
+			metrics.openSize(openList.size());
 		}
 
 		return null;
 	}
 
+	/**
+	 * Creates the frontier selected with the frontier option. The default is
+	 * the indexed binary heap ordered by f and the tie breaking policy. The
+	 * bucket frontiers order by integer f only and take states of equal f
+	 * first in, first out or last in, first out.
+	 *
+	 * @return An empty open list
+	 */
+	private OpenList createOpenList() {
+		String frontier = getOption("frontier", "heap").toLowerCase();
+		switch (frontier) {
+		case "heap":
+			return new IndexedOpenList(tieBreaker);
+		case "bucket-fifo":
+			return new BucketOpenList(false);
+		case "bucket-lifo":
+			return new BucketOpenList(true);
+		default:
+			throw new IllegalArgumentException("Unknown frontier " + frontier
+					+ ", expected heap, bucket-fifo or bucket-lifo");
+		}
+	}
+
+	/**
+	 * @return The order in which the open lists of createOpenList give their
+	 *         states. The bucket frontiers only order by f.
+	 */
+	private TieBreaker frontierOrder() {
+		return getOption("frontier", "heap").equalsIgnoreCase("heap") ? tieBreaker
+				: TieBreaker.NONE;
+	}
+
 	private Stack<StripsAction> buildPath(GameState currentState,
 			GameState start) {
 		Stack<StripsAction> path = new Stack<StripsAction>();
@@ -154,15 +552,45 @@ public class PlannerAgent extends Agent {
 		return path;
 	}
 
-	private boolean existsWithLowerCost(PriorityQueue<GameState> openList,
-			GameState loc) {
-		GameState[] locArray = openList.toArray(new GameState[] {});
-		for (GameState arrLoc : locArray) {
-			if (arrLoc.equals(loc) && arrLoc.getCost() < loc.getCost()) {
-				return true;
+	/**
+	 * Writes the metrics of the last plan as JSON to saves/plan_metrics.json,
+	 * next to the plan.
+	 */
+	private void saveMetrics() {
+		File outputDir = new File("saves");
+		outputDir.mkdirs();
+
+		PrintWriter outputWriter = null;
+		try {
+			outputWriter = new PrintWriter(new File(outputDir,
+					"plan_metrics.json"));
+			outputWriter.print(metrics.toJson());
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} finally {
+			if (outputWriter != null)
+				outputWriter.close();
+		}
+	}
+
+	/**
+	 * Registers the metrics of the last plan with the platform MBean server,
+	 * in place of those of an earlier plan, see SearchMetricsMBean.
+	 */
+	private void publishMetrics() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(
+					"edu.cwru.sepia.agent.planner:type=SearchMetrics,player="
+							+ playernum);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
 			}
+			server.registerMBean(metrics, name);
+		} catch (JMException e) {
+			System.err.println("Cannot publish the search metrics: "
+					+ e.getMessage());
 		}
-		return false;
 	}
 
 	/**
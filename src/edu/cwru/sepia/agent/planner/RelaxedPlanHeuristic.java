@@ -0,0 +1,383 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.cwru.sepia.agent.planner.actions.HarvestCycleStripsAction;
+import edu.cwru.sepia.agent.planner.actions.MoveStripsAction;
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+import edu.cwru.sepia.environment.model.state.ResourceType;
+
+/**
+ * Estimates the cost of a relaxed plan in the style of the FF planner's
+ * heuristic, made of the grounded actions in the state's ActionTable and
+ * priced with their action costs. The relaxation ignores everything an action
+ * takes away except the resources gathered and the gold a new peasant costs:
+ * peasants do not have to meet up to act as a group and every peasant that
+ * is not needed where it stands is free to start its trips from the town
+ * hall.
+ *
+ * The relaxed plan first finishes the work under way. Carriers move back from
+ * where they stand and deposit, one move and one deposit for each place.
+ * Peasants with empty hands next to a resource that is still needed gather
+ * there, move back and deposit. The rest is gathered with cycles of the
+ * grounded move out, gather, move back and deposit, or with the grounded
+ * harvest cycle where there is one, done by as many peasants as there are,
+ * up to the largest group in the table. Each cycle goes to the cheapest
+ * resource of the type that has enough left, so resources do run out.
+ * Peasants can be built along the way with the production action: the
+ * peasants there are gather the 400 gold for the next one, which then joins
+ * the group. The number of peasants built is the one that gives the cheapest
+ * relaxed plan. A goal the resources left cannot pay for is estimated as
+ * infinite.
+ *
+ * The cycles only depend on a few features of the state: the gold and wood
+ * still needed once the work under way is done, the number of peasants and
+ * what every resource has left. Many states share these, so that part of the
+ * estimate is memoised by them.
+ */
+public class RelaxedPlanHeuristic implements Heuristic {
+
+	private static final int PEASANT_GOLD_COST = 400;
+
+	private volatile Grounding grounding;
+
+	@Override
+	public double estimate(GameState state) {
+		Grounding actions = groundingFor(state);
+		List<ResourceState> resources = state.getResources();
+		int[] remaining = new int[resources.size()];
+		for (int i = 0; i < remaining.length; i++) {
+			remaining[i] = resources.get(i).getRemaining();
+		}
+		int goldNeeded = state.getRequiredGold() - state.getCurrentGold();
+		int woodNeeded = state.getRequiredWood() - state.getCurrentWood();
+
+		// Carriers and peasants next to a resource, by where they stand
+		Map<Position, int[]> carriers = new HashMap<Position, int[]>();
+		Map<Position, int[]> gatherers = new HashMap<Position, int[]>();
+		for (PeasantState peasant : state.getPeasants()) {
+			if (peasant.getCargoAmount() > 0) {
+				if (peasant.getCargoType() == ResourceType.GOLD) {
+					goldNeeded -= peasant.getCargoAmount();
+				} else {
+					woodNeeded -= peasant.getCargoAmount();
+				}
+				count(carriers, peasant.getPosition());
+			} else if (actions.indexOf(peasant.getPosition()) >= 0) {
+				count(gatherers, peasant.getPosition());
+			}
+		}
+
+		int cost = 0;
+		for (Position position : carriers.keySet()) {
+			cost += actions.moveBack(state, position) + actions.deposit;
+		}
+		for (Map.Entry<Position, int[]> entry : gatherers.entrySet()) {
+			int resource = actions.indexOf(entry.getKey());
+			boolean gold = actions.types[resource] == ResourceType.GOLD;
+			int units = Math.min(entry.getValue()[0], Math.min(
+					remaining[resource], gold ? goldNeeded : woodNeeded) / 100);
+			if (units <= 0) {
+				continue;
+			}
+			remaining[resource] -= 100 * units;
+			if (gold) {
+				goldNeeded -= 100 * units;
+			} else {
+				woodNeeded -= 100 * units;
+			}
+			cost += actions.gather + actions.moveBack(state, entry.getKey())
+					+ actions.deposit;
+		}
+
+		// Gold beyond what building every possible peasant needs makes no
+		// difference, so the gold feature is clamped there
+		int peasants = state.getPeasantCount();
+		int maxBuilt = state.isBuildPeasants() ? Math.max(0,
+				state.desiredPeasantNumber() - peasants) : 0;
+		goldNeeded = Math.max(-PEASANT_GOLD_COST * maxBuilt, goldNeeded);
+		woodNeeded = Math.max(0, woodNeeded);
+
+		Features key = new Features(goldNeeded, woodNeeded, peasants,
+				maxBuilt, remaining);
+		Double cycles = actions.memo.get(key);
+		if (cycles == null) {
+			cycles = actions.cheapestGathering(state.getRequiredGold(),
+					goldNeeded, woodNeeded, peasants, maxBuilt, remaining);
+			actions.memo.put(key, cycles);
+		}
+		return cost + cycles;
+	}
+
+	/**
+	 * @return The number of distinct feature combinations estimated so far
+	 *         for the scenario of the last state estimated
+	 */
+	public int getMemoSize() {
+		Grounding actions = grounding;
+		return actions == null ? 0 : actions.memo.size();
+	}
+
+	/**
+	 * All states of a search share the ActionTable of its initial state, so
+	 * the action costs are only read again when a new search starts.
+	 */
+	private Grounding groundingFor(GameState state) {
+		Grounding actions = grounding;
+		if (actions == null || actions.table != state.getActionTable()) {
+			actions = new Grounding(state);
+			grounding = actions;
+		}
+		return actions;
+	}
+
+	private static void count(Map<Position, int[]> counts, Position position) {
+		int[] count = counts.get(position);
+		if (count == null) {
+			counts.put(position, new int[] { 1 });
+		} else {
+			count[0]++;
+		}
+	}
+
+	/**
+	 * The costs of the grounded actions of one ActionTable, by resource, and
+	 * the estimates of the cycles made of them.
+	 */
+	private static final class Grounding {
+		private final ActionTable table;
+		private final Position[] positions;
+		private final ResourceType[] types;
+		// Cost of the grounded actions that take a peasant from the town
+		// hall to a resource and back with 100 of it, -1 if there are none
+		private final int[] cycle;
+		// Cost of the grounded move from a resource back to the town hall
+		private final int[] back;
+		private final int gather;
+		private final int deposit;
+		private final int production;
+		private final int maxGroup;
+		private final Map<Features, Double> memo = new ConcurrentHashMap<Features, Double>();
+
+		Grounding(GameState state) {
+			this.table = state.getActionTable();
+			List<ResourceState> resources = state.getResources();
+			this.positions = new Position[resources.size()];
+			this.types = new ResourceType[resources.size()];
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = resources.get(i).getPostion();
+				types[i] = resources.get(i).getType();
+			}
+			this.back = new int[positions.length];
+			int[] out = new int[positions.length];
+			boolean[] harvest = new boolean[positions.length];
+			Arrays.fill(back, -1);
+			Arrays.fill(out, -1);
+
+			int gatherCost = 1;
+			int depositCost = 1;
+			int productionCost = 1;
+			int largest = 1;
+			for (int id = 0; id < table.size(); id++) {
+				StripsAction action = table.get(id);
+				largest = Math.max(largest, action.getPeasantCount());
+				int target = table.targetOf(id);
+				if (target >= 0) {
+					out[target] = action.getActionCost();
+					harvest[target] = action instanceof HarvestCycleStripsAction;
+					continue;
+				}
+				switch (action.getActionType()) {
+				case MOVE:
+					int resource = indexOf(((MoveStripsAction) action)
+							.getStart());
+					if (resource >= 0) {
+						back[resource] = action.getActionCost();
+					}
+					break;
+				case GATHER:
+					gatherCost = action.getActionCost();
+					break;
+				case DEPOSIT:
+					depositCost = action.getActionCost();
+					break;
+				case BUILD_PEASANT:
+					productionCost = action.getActionCost();
+					break;
+				default:
+					break;
+				}
+			}
+			this.gather = gatherCost;
+			this.deposit = depositCost;
+			this.production = productionCost;
+			this.maxGroup = largest;
+
+			this.cycle = new int[positions.length];
+			for (int i = 0; i < cycle.length; i++) {
+				if (out[i] < 0 || back[i] < 0) {
+					cycle[i] = -1;
+				} else {
+					cycle[i] = harvest[i] ? out[i] : out[i] + gather + back[i]
+							+ deposit;
+				}
+			}
+		}
+
+		/**
+		 * @return The index of the resource at the position, -1 if there is
+		 *         none
+		 */
+		int indexOf(Position position) {
+			for (int i = 0; i < positions.length; i++) {
+				if (positions[i].equals(position)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return The cost of the grounded move back to the town hall from
+		 *         the position, nothing if it is next to the town hall
+		 */
+		int moveBack(GameState state, Position position) {
+			Position townHall = state.getTownHallPosition();
+			if (position.chebyshevDistance(townHall) <= 1) {
+				return 0;
+			}
+			int resource = indexOf(position);
+			if (resource >= 0 && back[resource] >= 0) {
+				return back[resource];
+			}
+			return Math.max(0, state.getDistances().fromTownHall(position));
+		}
+
+		/**
+		 * Tries every number of peasants that can still be built and returns
+		 * the cheapest relaxed cost of building them and gathering what is
+		 * needed.
+		 *
+		 * @param goldNeeded
+		 *            Gold still needed for the goal, negative if there is
+		 *            more than enough
+		 * @param remaining
+		 *            What every resource has left, not changed
+		 * @return The cost, infinite if the resources left do not pay for
+		 *         the goal
+		 */
+		double cheapestGathering(int requiredGold, int goldNeeded,
+				int woodNeeded, int peasants, int maxBuilt, int[] remaining) {
+			double best = Double.POSITIVE_INFINITY;
+			for (int built = 0; built <= maxBuilt; built++) {
+				int[] left = remaining.clone();
+				int cost = built * production;
+				// Gold in hand, stored or carried
+				int gold = requiredGold - goldNeeded;
+				boolean possible = true;
+				for (int group = peasants; possible
+						&& group < peasants + built; group++) {
+					int gathered = Math.max(0, PEASANT_GOLD_COST - gold);
+					int runs = cycles(ResourceType.GOLD, gathered, group, left);
+					possible = runs >= 0;
+					cost += runs;
+					gold += roundUp(gathered) - PEASANT_GOLD_COST;
+				}
+				if (!possible) {
+					continue;
+				}
+				int group = peasants + built;
+				int goldRuns = cycles(ResourceType.GOLD, requiredGold - gold,
+						group, left);
+				int woodRuns = cycles(ResourceType.WOOD, woodNeeded, group,
+						left);
+				if (goldRuns >= 0 && woodRuns >= 0) {
+					best = Math.min(best, cost + goldRuns + woodRuns);
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Gathers the amount with cycles of the group at the cheapest
+		 * resources of the type that have enough left, taking what they
+		 * gather out of left.
+		 *
+		 * @return The cost of the cycles, -1 if the resources run out first
+		 */
+		private int cycles(ResourceType type, int amount, int group, int[] left) {
+			int cost = 0;
+			int size = Math.max(1, Math.min(group, maxGroup));
+			while (amount > 0) {
+				int cheapest = -1;
+				for (int i = 0; i < left.length; i++) {
+					if (types[i] == type && cycle[i] >= 0 && left[i] >= 100
+							&& (cheapest < 0 || cycle[i] < cycle[cheapest])) {
+						cheapest = i;
+					}
+				}
+				if (cheapest < 0) {
+					return -1;
+				}
+				int units = Math.min(size,
+						Math.min(left[cheapest], roundUp(amount)) / 100);
+				left[cheapest] -= 100 * units;
+				amount -= 100 * units;
+				cost += cycle[cheapest];
+			}
+			return cost;
+		}
+
+		private static int roundUp(int amount) {
+			return amount <= 0 ? 0 : (amount + 99) / 100 * 100;
+		}
+	}
+
+	/**
+	 * The features the cycles depend on, the key of the memo.
+	 */
+	private static final class Features {
+		private final int goldNeeded;
+		private final int woodNeeded;
+		private final int peasants;
+		private final int maxBuilt;
+		private final int[] remaining;
+
+		Features(int goldNeeded, int woodNeeded, int peasants, int maxBuilt,
+				int[] remaining) {
+			this.goldNeeded = goldNeeded;
+			this.woodNeeded = woodNeeded;
+			this.peasants = peasants;
+			this.maxBuilt = maxBuilt;
+			this.remaining = remaining;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Features))
+				return false;
+			Features other = (Features) obj;
+			return goldNeeded == other.goldNeeded
+					&& woodNeeded == other.woodNeeded
+					&& peasants == other.peasants
+					&& maxBuilt == other.maxBuilt
+					&& Arrays.equals(remaining, other.remaining);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = goldNeeded;
+			result = 31 * result + woodNeeded;
+			result = 31 * result + peasants;
+			result = 31 * result + maxBuilt;
+			result = 31 * result + Arrays.hashCode(remaining);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps every cell of the map to the index of the resource on it. Resources
+ * never move or appear during a search, so the grid is built once from the
+ * initial state and shared by all of its successors. A resource's index is
+ * its position in GameState.getResources(), gold mines first and then trees.
+ */
+public class ResourceGrid {
+
+	private final int xExtent;
+	private final int yExtent;
+	private final int[] cells;
+
+	/**
+	 * @param xExtent
+	 *            X dimension size of the map
+	 * @param yExtent
+	 *            Y dimension size of the map
+	 * @param resources
+	 *            The resources in index order
+	 */
+	public ResourceGrid(int xExtent, int yExtent, List<ResourceState> resources) {
+		this.xExtent = xExtent;
+		this.yExtent = yExtent;
+		this.cells = new int[xExtent * yExtent];
+		Arrays.fill(cells, -1);
+		for (int i = 0; i < resources.size(); i++) {
+			Position position = resources.get(i).getPostion();
+			if (position.inBounds(xExtent, yExtent)) {
+				cells[position.x * yExtent + position.y] = i;
+			}
+		}
+	}
+
+	/**
+	 * @param position
+	 *            Any position, it does not have to be in bounds
+	 * @return The index of the resource at the position or -1 if there is
+	 *         none
+	 */
+	public int indexOf(Position position) {
+		if (!position.inBounds(xExtent, yExtent)) {
+			return -1;
+		}
+		return cells[position.x * yExtent + position.y];
+	}
+}
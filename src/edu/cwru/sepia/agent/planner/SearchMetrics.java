@@ -0,0 +1,284 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.Locale;
+import java.util.Stack;
+
+import edu.cwru.sepia.agent.planner.actions.StripsAction;
+
+/**
+ * Counters of one search run: the states expanded and generated, the
+ * children that were already known (duplicates) and the known states that
+ * were reached more cheaply and had to be searched again (reopenings), the
+ * largest the open and closed lists got, where the time went and the plan
+ * that came out. Each search fills in its own instance, PlannerAgent keeps
+ * the one of the last search it ran, publishes it as a JMX MBean and writes
+ * it to saves/plan_metrics.json.
+ *
+ * The time of successor generation includes the heuristic, which computes
+ * its estimate when a child is built. The hashing time is spent looking the
+ * children up in the closed and open lists and adding them there.
+ */
+public class SearchMetrics implements SearchMetricsMBean {
+
+	private long expanded;
+	private long generated;
+	private long duplicates;
+	private long reopened;
+	private long peakOpen;
+	private long peakClosed;
+	private long successorNanos;
+	private long heuristicNanos;
+	private long hashNanos;
+
+	// Filled in by PlannerAgent once the search is done
+	private String algorithm = "";
+	private String heuristic = "";
+	private boolean cached;
+	private long searchNanos;
+	private int planLength = -1;
+	private int planCost = -1;
+
+	/**
+	 * Counts one expansion and the children it generated.
+	 *
+	 * @param children
+	 *            The number of children generateChildren returned
+	 * @param nanos
+	 *            The time generateChildren took
+	 */
+	public void expanded(int children, long nanos) {
+		expanded++;
+		generated += children;
+		successorNanos += nanos;
+	}
+
+	/**
+	 * Counts a child that was already known at a lower or equal cost.
+	 */
+	public void duplicate() {
+		duplicates++;
+	}
+
+	/**
+	 * Counts a state that had been expanded and was reached more cheaply.
+	 */
+	public void reopened() {
+		reopened++;
+	}
+
+	/**
+	 * @param nanos
+	 *            Time spent on the closed and open lists
+	 */
+	public void hashed(long nanos) {
+		hashNanos += nanos;
+	}
+
+	/**
+	 * @param nanos
+	 *            Time spent in the heuristic during the search
+	 */
+	public void setHeuristicNanos(long nanos) {
+		heuristicNanos = nanos;
+	}
+
+	/**
+	 * @param size
+	 *            The current size of the open list
+	 */
+	public void openSize(long size) {
+		peakOpen = Math.max(peakOpen, size);
+	}
+
+	/**
+	 * @param size
+	 *            The current size of the closed list
+	 */
+	public void closedSize(long size) {
+		peakClosed = Math.max(peakClosed, size);
+	}
+
+	/**
+	 * Records what was searched and the plan that came out.
+	 *
+	 * @param algorithm
+	 *            The algorithm option
+	 * @param heuristic
+	 *            The heuristic option
+	 * @param cached
+	 *            True if the plan came from the plan cache without a search
+	 * @param nanos
+	 *            The wall time of the search
+	 * @param plan
+	 *            The plan or null if none was found
+	 */
+	public void planned(String algorithm, String heuristic, boolean cached,
+			long nanos, Stack<StripsAction> plan) {
+		this.algorithm = algorithm;
+		this.heuristic = heuristic;
+		this.cached = cached;
+		this.searchNanos = nanos;
+		if (plan != null) {
+			planLength = plan.size();
+			planCost = 0;
+			for (StripsAction action : plan) {
+				planCost += action.getActionCost();
+			}
+		}
+	}
+
+	/**
+	 * Adds the counters of another run into this one. The peaks are added
+	 * too, which gives the peak of lists that are all in memory together,
+	 * such as those of the HDA* workers, and so are the times, which gives
+	 * the CPU time over all threads.
+	 *
+	 * @param other
+	 *            The metrics to add
+	 */
+	public void add(SearchMetrics other) {
+		expanded += other.expanded;
+		generated += other.generated;
+		duplicates += other.duplicates;
+		reopened += other.reopened;
+		peakOpen += other.peakOpen;
+		peakClosed += other.peakClosed;
+		successorNanos += other.successorNanos;
+		hashNanos += other.hashNanos;
+	}
+
+	@Override
+	public long getExpanded() {
+		return expanded;
+	}
+
+	@Override
+	public long getGenerated() {
+		return generated;
+	}
+
+	@Override
+	public long getDuplicates() {
+		return duplicates;
+	}
+
+	@Override
+	public long getReopened() {
+		return reopened;
+	}
+
+	@Override
+	public long getPeakOpen() {
+		return peakOpen;
+	}
+
+	@Override
+	public long getPeakClosed() {
+		return peakClosed;
+	}
+
+	@Override
+	public long getSuccessorNanos() {
+		return successorNanos;
+	}
+
+	@Override
+	public long getHeuristicNanos() {
+		return heuristicNanos;
+	}
+
+	@Override
+	public long getHashNanos() {
+		return hashNanos;
+	}
+
+	@Override
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	@Override
+	public String getHeuristic() {
+		return heuristic;
+	}
+
+	@Override
+	public boolean isCached() {
+		return cached;
+	}
+
+	@Override
+	public long getSearchNanos() {
+		return searchNanos;
+	}
+
+	@Override
+	public int getPlanLength() {
+		return planLength;
+	}
+
+	@Override
+	public int getPlanCost() {
+		return planCost;
+	}
+
+	/**
+	 * @return The metrics as a JSON object, -1 stands for no plan
+	 */
+	public String toJson() {
+		return String.format(Locale.ROOT, "{%n" + "  \"algorithm\": \"%s\",%n"
+				+ "  \"heuristic\": \"%s\",%n" + "  \"cached\": %b,%n"
+				+ "  \"search_ms\": %.3f,%n" + "  \"expanded\": %d,%n"
+				+ "  \"generated\": %d,%n" + "  \"duplicates\": %d,%n"
+				+ "  \"reopened\": %d,%n" + "  \"peak_open\": %d,%n"
+				+ "  \"peak_closed\": %d,%n" + "  \"successor_ms\": %.3f,%n"
+				+ "  \"heuristic_ms\": %.3f,%n" + "  \"hash_ms\": %.3f,%n"
+				+ "  \"plan_length\": %d,%n" + "  \"plan_cost\": %d%n" + "}%n",
+				jsonEscape(algorithm), jsonEscape(heuristic), cached,
+				searchNanos / 1e6, expanded, generated, duplicates, reopened,
+				peakOpen, peakClosed, successorNanos / 1e6,
+				heuristicNanos / 1e6, hashNanos / 1e6, planLength, planCost);
+	}
+
+	/**
+	 * Escapes a string for use between the quotes of a JSON string.
+	 */
+	private static String jsonEscape(String value) {
+		StringBuilder escaped = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				escaped.append("\\\"");
+				break;
+			case '\\':
+				escaped.append("\\\\");
+				break;
+			case '\n':
+				escaped.append("\\n");
+				break;
+			case '\r':
+				escaped.append("\\r");
+				break;
+			case '\t':
+				escaped.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					escaped.append(String.format(Locale.ROOT, "\\u%04x",
+							(int) c));
+				} else {
+					escaped.append(c);
+				}
+			}
+		}
+		return escaped.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "expanded " + expanded + ", generated " + generated
+				+ ", duplicates " + duplicates + ", reopened " + reopened
+				+ ", peak open " + peakOpen + ", peak closed " + peakClosed;
+	}
+}
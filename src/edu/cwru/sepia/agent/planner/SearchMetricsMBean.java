@@ -0,0 +1,39 @@
+package edu.cwru.sepia.agent.planner;
+
+/**
+ * The JMX view of SearchMetrics. PlannerAgent registers the metrics of its
+ * last search as edu.cwru.sepia.agent.planner:type=SearchMetrics,player=N,
+ * where they can be read with jconsole or any other JMX client.
+ */
+public interface SearchMetricsMBean {
+
+	public long getExpanded();
+
+	public long getGenerated();
+
+	public long getDuplicates();
+
+	public long getReopened();
+
+	public long getPeakOpen();
+
+	public long getPeakClosed();
+
+	public long getSuccessorNanos();
+
+	public long getHeuristicNanos();
+
+	public long getHashNanos();
+
+	public String getAlgorithm();
+
+	public String getHeuristic();
+
+	public boolean isCached();
+
+	public long getSearchNanos();
+
+	public int getPlanLength();
+
+	public int getPlanCost();
+}
@@ -0,0 +1,60 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.Comparator;
+
+/**
+ * Orders GameStates by their f value and decides which state goes first when
+ * the f values are equal. The Midas domain produces a lot of states with the
+ * same f value, so the tie breaking has a large effect on how many states are
+ * expanded before a goal is found.
+ */
+public enum TieBreaker implements Comparator<GameState> {
+
+	/**
+	 * Only compare f values, equal states are taken in whatever order the
+	 * open list gives them.
+	 */
+	NONE {
+		@Override
+		int breakTie(GameState a, GameState b) {
+			return 0;
+		}
+	},
+
+	/**
+	 * Prefer the state with the higher cost so far. This is the state that is
+	 * deepest in the search and usually closest to a goal. Since the f values
+	 * are equal this is the same as preferring the lower heuristic value.
+	 */
+	HIGH_G {
+		@Override
+		int breakTie(GameState a, GameState b) {
+			return Double.compare(b.getCost(), a.getCost());
+		}
+	},
+
+	/**
+	 * Prefer the state with the lower cost so far, which explores the states
+	 * with equal f value breadth first.
+	 */
+	LOW_G {
+		@Override
+		int breakTie(GameState a, GameState b) {
+			return Double.compare(a.getCost(), b.getCost());
+		}
+	};
+
+	@Override
+	public int compare(GameState a, GameState b) {
+		int result = Double.compare(a.getFValue(), b.getFValue());
+		return result != 0 ? result : breakTie(a, b);
+	}
+
+	/**
+	 * Compares two states that have the same f value.
+	 *
+	 * @return negative if a should be expanded first, positive if b should be
+	 *         expanded first and 0 if it does not matter
+	 */
+	abstract int breakTie(GameState a, GameState b);
+}
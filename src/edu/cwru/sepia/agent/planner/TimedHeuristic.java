@@ -0,0 +1,33 @@
+package edu.cwru.sepia.agent.planner;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps a heuristic and adds up the time spent in it, for SearchMetrics. The
+ * time is kept in a LongAdder because the HDA* workers estimate states on
+ * several threads at once.
+ */
+public class TimedHeuristic implements Heuristic {
+
+	private final Heuristic heuristic;
+	private final LongAdder nanos = new LongAdder();
+
+	public TimedHeuristic(Heuristic heuristic) {
+		this.heuristic = heuristic;
+	}
+
+	@Override
+	public double estimate(GameState state) {
+		long start = System.nanoTime();
+		double estimate = heuristic.estimate(state);
+		nanos.add(System.nanoTime() - start);
+		return estimate;
+	}
+
+	/**
+	 * @return The time spent in the heuristic so far
+	 */
+	public long getNanos() {
+		return nanos.sum();
+	}
+}
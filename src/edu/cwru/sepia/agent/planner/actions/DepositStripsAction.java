@@ -1,10 +1,5 @@
 package edu.cwru.sepia.agent.planner.actions;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
-
 import edu.cwru.sepia.agent.planner.GameState;
 import edu.cwru.sepia.agent.planner.PeasantState;
 import edu.cwru.sepia.agent.planner.Position;
@@ -19,35 +14,27 @@ public class DepositStripsAction implements StripsAction {
 		this.depositPosition = depositPosition;
 	}
 
+	/**
+	 * Peasants next to the town hall that carry something deposit it.
+	 */
 	@Override
-	public boolean preconditionsMet(GameState state) {
-		Collection<PeasantState> peasants = state.getPeasants();
+	public long bind(GameState state) {
 		// If the deposit site isn't the town hall, false
 		if (!state.getTownHallPosition().equals(depositPosition)) {
-			return false;
-		}
-		// Check that enough peasants are there
-		List<PeasantState> peasantsAtDepositSite = new ArrayList<PeasantState>();
-		for (PeasantState peasant : peasants) {
-			if (peasant.getPosition().chebyshevDistance(depositPosition) <= 1) {
-				peasantsAtDepositSite.add(peasant);
-			}
-		}
-		if (peasantsAtDepositSite.size() < peasantCount) {
-			return false;
+			return UNBOUND;
 		}
-		// Check that the desired number of peasants have cargo
-		int peasantsWithCargo = 0;
-		for (PeasantState peasant : peasantsAtDepositSite) {
-			if (peasant.getCargoAmount() > 0) {
-				peasantsWithCargo++;
+		long slots = 0;
+		int found = 0;
+		for (int slot = 0; slot < state.getPeasantCount()
+				&& found < peasantCount; slot++) {
+			PeasantState peasant = state.getPeasantInSlot(slot);
+			if (peasant.getPosition().chebyshevDistance(depositPosition) <= 1
+					&& peasant.getCargoAmount() > 0) {
+				slots |= 1L << slot;
+				found++;
 			}
 		}
-		if (peasantsWithCargo < peasantCount) {
-			return false;
-		}
-		// All good.
-		return true;
+		return found == peasantCount ? slots : UNBOUND;
 	}
 
 	@Override
@@ -70,44 +57,6 @@ public class DepositStripsAction implements StripsAction {
 		return 1;
 	}
 
-	@Override
-	public List<Integer> getPeasantIdsForAction(GameState state) {
-		Collection<PeasantState> peasants = state.getPeasants();
-		Collection<PeasantState> toRemove = new HashSet<PeasantState>();
-		// If the deposit site isn't the town hall, false
-		if (!state.getTownHallPosition().equals(depositPosition)) {
-			return new ArrayList<Integer>();
-		}
-		// Check that enough peasants are there
-		List<PeasantState> peasantsAtDepositSite = new ArrayList<PeasantState>();
-		for (PeasantState peasant : peasants) {
-			if (peasant.getPosition().chebyshevDistance(depositPosition) <= 1) {
-				peasantsAtDepositSite.add(peasant);
-			}
-		}
-		if (peasantsAtDepositSite.size() < peasantCount) {
-			return new ArrayList<Integer>();
-		}
-		// Check that the desired number of peasants have cargo
-		int peasantsWithCargo = 0;
-		for (PeasantState peasant : peasantsAtDepositSite) {
-			if (peasant.getCargoAmount() > 0) {
-				peasantsWithCargo++;
-			} else {
-				toRemove.add(peasant);
-			}
-		}
-		if (peasantsWithCargo < peasantCount) {
-			return new ArrayList<Integer>();
-		}
-		// All good.
-		List<Integer> ids = new ArrayList<Integer>();
-		peasantsAtDepositSite.removeAll(toRemove);
-		peasantsAtDepositSite.stream().limit(peasantCount)
-				.forEach(p -> ids.add(p.getId()));
-		return ids;
-	}
-
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -137,4 +86,10 @@ public class DepositStripsAction implements StripsAction {
 		return true;
 	}
 
+	@Override
+	public String toString() {
+		return "Deposit(" + peasantCount + ", " + depositPosition.x + ", "
+				+ depositPosition.y + ")";
+	}
+
 }
@@ -1,10 +1,5 @@
 package edu.cwru.sepia.agent.planner.actions;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
-
 import edu.cwru.sepia.agent.planner.GameState;
 import edu.cwru.sepia.agent.planner.PeasantState;
 import edu.cwru.sepia.agent.planner.Position;
@@ -21,50 +16,44 @@ public class GatherStripsAction implements StripsAction {
 		this.gatherPosition = gatherPosition;
 	}
 
+	/**
+	 * Peasants with empty hands next to a resource gather 100 each, as long
+	 * as the resource has that much left and the stock does not go over the
+	 * requirement.
+	 */
 	@Override
-	public boolean preconditionsMet(GameState state) {
-		Collection<PeasantState> peasants = state.getPeasants();
-		List<PeasantState> peasantsAtResource = new ArrayList<PeasantState>();
-		for (PeasantState peasant : peasants) {
-			if (peasant.getPosition().chebyshevDistance(gatherPosition) <= 1) {
-				peasantsAtResource.add(peasant);
-			}
-		}
-		if (peasantsAtResource.size() < peasantCount) {
-			return false;
-		}
-		// Check that the desired number of peasants have empty hands
-		int peasantsWithNoCargo = 0;
-		for (PeasantState peasant : peasantsAtResource) {
-			if (peasant.getCargoAmount() == 0) {
-				peasantsWithNoCargo++;
-			}
+	public long bind(GameState state) {
+		if (!state.isNonEmptyResource(gatherPosition)) {
+			return UNBOUND;
 		}
-		if (peasantsWithNoCargo < peasantCount) {
-			return false;
-		}
-
-		// Check for enough resources
 		ResourceState resource = state.getResourceByPosition(gatherPosition);
 		if (resource.getRemaining() < peasantCount * 100) {
-			return false;
+			return UNBOUND;
 		}
-
 		if (resource.getType() == ResourceType.WOOD) {
 			if (state.getRequiredWood() < state.getCurrentWood() + 100
 					* peasantCount) {
-				return false;
+				return UNBOUND;
 			}
 		} else {
 			if (state.getRequiredGold() < state.getCurrentGold() + 100
 					* peasantCount) {
-				return false;
+				return UNBOUND;
 			}
 		}
 
-		// If the right number of peasants are there and able to gather, check
-		// that this is a valid gather location
-		return state.getNonEmptyResourcePositions().contains(gatherPosition);
+		long slots = 0;
+		int found = 0;
+		for (int slot = 0; slot < state.getPeasantCount()
+				&& found < peasantCount; slot++) {
+			PeasantState peasant = state.getPeasantInSlot(slot);
+			if (peasant.getPosition().chebyshevDistance(gatherPosition) <= 1
+					&& peasant.getCargoAmount() == 0) {
+				slots |= 1L << slot;
+				found++;
+			}
+		}
+		return found == peasantCount ? slots : UNBOUND;
 	}
 
 	@Override
@@ -91,59 +80,6 @@ public class GatherStripsAction implements StripsAction {
 		return gatherPosition;
 	}
 
-	@Override
-	public List<Integer> getPeasantIdsForAction(GameState state) {
-		Collection<PeasantState> peasants = state.getPeasants();
-		Collection<PeasantState> toRemove = new HashSet<PeasantState>();
-		List<PeasantState> peasantsAtResource = new ArrayList<PeasantState>();
-		for (PeasantState peasant : peasants) {
-			if (peasant.getPosition().chebyshevDistance(gatherPosition) <= 1) {
-				peasantsAtResource.add(peasant);
-			}
-		}
-		if (peasantsAtResource.size() < peasantCount) {
-			return new ArrayList<Integer>();
-		}
-		// Check that the desired number of peasants have empty hands
-		int peasantsWithNoCargo = 0;
-		for (PeasantState peasant : peasantsAtResource) {
-			if (peasant.getCargoAmount() == 0) {
-				peasantsWithNoCargo++;
-			} else {
-				toRemove.add(peasant);
-			}
-		}
-		if (peasantsWithNoCargo < peasantCount) {
-			return new ArrayList<Integer>();
-		}
-
-		// Check for enough resources
-		ResourceState resource = state.getResourceByPosition(gatherPosition);
-		if (resource.getRemaining() < peasantCount * 100) {
-			return new ArrayList<Integer>();
-		}
-
-		if (resource.getType() == ResourceType.WOOD) {
-			if (state.getRequiredWood() < state.getCurrentWood() + 100
-					* peasantCount) {
-				return new ArrayList<Integer>();
-			}
-		} else {
-			if (state.getRequiredGold() < state.getCurrentGold() + 100
-					* peasantCount) {
-				return new ArrayList<Integer>();
-			}
-		}
-
-		// If the right number of peasants are there and able to gather, check
-		// that this is a valid gather location
-		List<Integer> ids = new ArrayList<Integer>();
-		peasantsAtResource.removeAll(toRemove);
-		peasantsAtResource.stream().limit(peasantCount)
-				.forEach(p -> ids.add(p.getId()));
-		return ids;
-	}
-
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -172,4 +108,10 @@ public class GatherStripsAction implements StripsAction {
 			return false;
 		return true;
 	}
+
+	@Override
+	public String toString() {
+		return "Gather(" + peasantCount + ", " + gatherPosition.x + ", "
+				+ gatherPosition.y + ")";
+	}
 }
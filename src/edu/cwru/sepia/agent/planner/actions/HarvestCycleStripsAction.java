@@ -0,0 +1,163 @@
+package edu.cwru.sepia.agent.planner.actions;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.cwru.sepia.agent.planner.GameState;
+import edu.cwru.sepia.agent.planner.PeasantState;
+import edu.cwru.sepia.agent.planner.Position;
+import edu.cwru.sepia.agent.planner.ResourceState;
+import edu.cwru.sepia.environment.model.state.ResourceType;
+
+/**
+ * A whole move-gather-move-deposit cycle of a group of peasants as one step:
+ * the peasants walk from the town hall to a resource, gather 100 each, walk
+ * back and deposit. It costs as much as the four actions together. PEAgent
+ * replaces it by the four actions when it is executed, see expand.
+ */
+public class HarvestCycleStripsAction implements StripsAction {
+
+	private final int peasantCount;
+	private final Position townHall;
+	private final Position resource;
+	private final int distance;
+
+	/**
+	 * @param peasantCount
+	 *            The number of peasants that harvest together
+	 * @param townHall
+	 *            Where the peasants start and end
+	 * @param resource
+	 *            Where the peasants gather
+	 * @param distance
+	 *            The number of steps between the town hall and the resource,
+	 *            see DistanceTable.moveCost
+	 */
+	public HarvestCycleStripsAction(int peasantCount, Position townHall,
+			Position resource, int distance) {
+		this.peasantCount = peasantCount;
+		this.townHall = townHall;
+		this.resource = resource;
+		this.distance = distance;
+	}
+
+	@Override
+	public GameState apply(GameState state) {
+		return state.applyAction(this);
+	}
+
+	@Override
+	public ActionType getActionType() {
+		return ActionType.HARVEST_CYCLE;
+	}
+
+	@Override
+	public int getPeasantCount() {
+		return peasantCount;
+	}
+
+	@Override
+	public int getActionCost() {
+		return 2 * distance + 2;
+	}
+
+	public Position getResourcePosition() {
+		return resource;
+	}
+
+	/**
+	 * @return The move, gather, move and deposit this cycle is made of, in
+	 *         the order they are done
+	 */
+	public List<StripsAction> expand() {
+		return Arrays.<StripsAction> asList(new MoveStripsAction(peasantCount,
+				townHall, resource, distance), new GatherStripsAction(
+				peasantCount, resource), new MoveStripsAction(peasantCount,
+				resource, townHall, distance), new DepositStripsAction(
+				peasantCount, townHall));
+	}
+
+	/**
+	 * The peasants have to be at the town hall with empty hands, like for the
+	 * first move of the cycle. The resource has to have enough left for every
+	 * peasant and the gathered amount must not go over the requirement, like
+	 * for the gather.
+	 */
+	@Override
+	public long bind(GameState state) {
+		if (!townHall.equals(state.getTownHallPosition())
+				|| !state.isNonEmptyResource(resource)) {
+			return UNBOUND;
+		}
+		ResourceState resourceState = state.getResourceByPosition(resource);
+		if (resourceState.getRemaining() < peasantCount * 100) {
+			return UNBOUND;
+		}
+		if (resourceState.getType() == ResourceType.WOOD) {
+			if (state.getRequiredWood() < state.getCurrentWood() + 100
+					* peasantCount) {
+				return UNBOUND;
+			}
+		} else {
+			if (state.getRequiredGold() < state.getCurrentGold() + 100
+					* peasantCount) {
+				return UNBOUND;
+			}
+		}
+
+		long slots = 0;
+		int found = 0;
+		for (int slot = 0; slot < state.getPeasantCount()
+				&& found < peasantCount; slot++) {
+			PeasantState peasant = state.getPeasantInSlot(slot);
+			if (peasant.getPosition().chebyshevDistance(townHall) <= 1
+					&& peasant.getCargoAmount() == 0) {
+				slots |= 1L << slot;
+				found++;
+			}
+		}
+		return found == peasantCount ? slots : UNBOUND;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result
+				+ ((resource == null) ? 0 : resource.hashCode());
+		result = prime * result + peasantCount;
+		result = prime * result
+				+ ((townHall == null) ? 0 : townHall.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		HarvestCycleStripsAction other = (HarvestCycleStripsAction) obj;
+		if (resource == null) {
+			if (other.resource != null)
+				return false;
+		} else if (!resource.equals(other.resource))
+			return false;
+		if (peasantCount != other.peasantCount)
+			return false;
+		if (townHall == null) {
+			if (other.townHall != null)
+				return false;
+		} else if (!townHall.equals(other.townHall))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "HarvestCycle(" + peasantCount + ", " + townHall.x + ", "
+				+ townHall.y + ", " + resource.x + ", " + resource.y + ")";
+	}
+}
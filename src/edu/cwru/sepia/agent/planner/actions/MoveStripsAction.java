@@ -1,10 +1,5 @@
 package edu.cwru.sepia.agent.planner.actions;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
-
 import edu.cwru.sepia.agent.planner.GameState;
 import edu.cwru.sepia.agent.planner.PeasantState;
 import edu.cwru.sepia.agent.planner.Position;
@@ -14,55 +9,51 @@ public class MoveStripsAction implements StripsAction {
 	private final int peasantCount;
 	private final Position start;
 	private final Position finish;
+	private final int cost;
 
-	public MoveStripsAction(int peasantCount, Position start, Position finish) {
+	/**
+	 * @param peasantCount
+	 *            The number of peasants that move together
+	 * @param start
+	 *            Where the peasants start
+	 * @param finish
+	 *            Where the peasants go
+	 * @param cost
+	 *            The number of steps between start and finish, see
+	 *            DistanceTable.moveCost
+	 */
+	public MoveStripsAction(int peasantCount, Position start, Position finish,
+			int cost) {
 		this.peasantCount = peasantCount;
 		this.start = start;
 		this.finish = finish;
+		this.cost = cost;
 	}
 
+	/**
+	 * Peasants leave the town hall with empty hands for a resource that still
+	 * has something left, and come back to it carrying something. Moves that
+	 * neither start nor end at the town hall are invalid.
+	 */
 	@Override
-	public boolean preconditionsMet(GameState state) {
-		Collection<PeasantState> peasants = state.getPeasants();
-		List<PeasantState> peasantsAtStart = new ArrayList<PeasantState>();
-		for (PeasantState peasant : peasants) {
-			if (peasant.getPosition().chebyshevDistance(start) <= 1) {
-				peasantsAtStart.add(peasant);
-			}
-		}
-		if (peasantsAtStart.size() < peasantCount) {
-			return false;
+	public long bind(GameState state) {
+		boolean fromTownHall = state.getTownHallPosition().equals(start);
+		if (fromTownHall ? !state.isNonEmptyResource(finish) : !state
+				.getTownHallPosition().equals(finish)) {
+			return UNBOUND;
 		}
-		// If starting at the town hall, peasants must have empty hands
-		int peasantsWithCorrectCargo = 0;
-		if (state.getTownHallPosition().equals(start)) {
-			for (PeasantState peasant : peasantsAtStart) {
-				if (peasant.getCargoAmount() == 0) {
-					peasantsWithCorrectCargo++;
-				}
-			}
-			if (peasantsWithCorrectCargo >= peasantCount
-					&& state.getNonEmptyResourcePositions().contains(finish)) {
-				return true;
-			} else {
-				return false;
-			}
-			// If ending at the town hall, peasants must be carrying something
-		} else if (state.getTownHallPosition().equals(finish)) {
-			for (PeasantState peasant : peasantsAtStart) {
-				if (peasant.getCargoAmount() > 0) {
-					peasantsWithCorrectCargo++;
-				}
+		long slots = 0;
+		int found = 0;
+		for (int slot = 0; slot < state.getPeasantCount()
+				&& found < peasantCount; slot++) {
+			PeasantState peasant = state.getPeasantInSlot(slot);
+			if (peasant.getPosition().chebyshevDistance(start) <= 1
+					&& (peasant.getCargoAmount() == 0) == fromTownHall) {
+				slots |= 1L << slot;
+				found++;
 			}
-			if (peasantsWithCorrectCargo >= peasantCount) {
-				return true;
-			} else {
-				return false;
-			}
-		} else {
-			// not starting or ending at the town hall is invalid
-			return false;
 		}
+		return found == peasantCount ? slots : UNBOUND;
 	}
 
 	@Override
@@ -82,68 +73,15 @@ public class MoveStripsAction implements StripsAction {
 
 	@Override
 	public int getActionCost() {
-		return start.chebyshevDistance(finish);
+		return cost;
 	}
 
-	public Position getDestination() {
-		return finish;
+	public Position getStart() {
+		return start;
 	}
 
-	@Override
-	public List<Integer> getPeasantIdsForAction(GameState state) {
-		List<PeasantState> peasantsAtStart = new ArrayList<PeasantState>();
-		Collection<PeasantState> peasants = state.getPeasants();
-		Collection<PeasantState> toRemove = new HashSet<PeasantState>();
-		for (PeasantState peasant : peasants) {
-			if (peasant.getPosition().chebyshevDistance(start) <= 1) {
-				peasantsAtStart.add(peasant);
-			}
-		}
-		if (peasantsAtStart.size() < peasantCount) {
-			return new ArrayList<Integer>();
-		}
-		// If starting at the town hall, peasants must have empty hands
-		int peasantsWithCorrectCargo = 0;
-		if (state.getTownHallPosition().equals(start)) {
-			for (PeasantState peasant : peasantsAtStart) {
-				if (peasant.getCargoAmount() == 0) {
-					peasantsWithCorrectCargo++;
-				} else {
-					toRemove.add(peasant);
-				}
-			}
-			if (peasantsWithCorrectCargo >= peasantCount
-					&& state.getNonEmptyResourcePositions().contains(finish)) {
-				List<Integer> ids = new ArrayList<Integer>();
-				peasantsAtStart.removeAll(toRemove);
-				peasantsAtStart.stream().limit(peasantCount)
-						.forEach(p -> ids.add(p.getId()));
-				return ids;
-			} else {
-				return new ArrayList<Integer>();
-			}
-			// If ending at the town hall, peasants must be carrying something
-		} else if (state.getTownHallPosition().equals(finish)) {
-			for (PeasantState peasant : peasantsAtStart) {
-				if (peasant.getCargoAmount() > 0) {
-					peasantsWithCorrectCargo++;
-				} else {
-					toRemove.add(peasant);
-				}
-			}
-			if (peasantsWithCorrectCargo >= peasantCount) {
-				List<Integer> ids = new ArrayList<Integer>();
-				peasantsAtStart.removeAll(toRemove);
-				peasantsAtStart.stream().limit(peasantCount)
-						.forEach(p -> ids.add(p.getId()));
-				return ids;
-			} else {
-				return new ArrayList<Integer>();
-			}
-		} else {
-			// not starting or ending at the town hall is invalid
-			return new ArrayList<Integer>();
-		}
+	public Position getDestination() {
+		return finish;
 	}
 
 	@Override
@@ -180,4 +118,10 @@ public class MoveStripsAction implements StripsAction {
 		return true;
 	}
 
+	@Override
+	public String toString() {
+		return "Move(" + peasantCount + ", " + start.x + ", " + start.y + ", "
+				+ finish.x + ", " + finish.y + ")";
+	}
+
 }
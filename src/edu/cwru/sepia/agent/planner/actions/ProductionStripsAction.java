@@ -7,12 +7,15 @@ import edu.cwru.sepia.agent.planner.GameState;
 
 public class ProductionStripsAction implements StripsAction {
 
+	/**
+	 * The town hall builds a peasant, so no peasants are bound.
+	 */
 	@Override
-	public boolean preconditionsMet(GameState state) {
+	public long bind(GameState state) {
 		boolean enoughGold = (400 <= state.getCurrentGold());
 		boolean enoughFood = (1 <= state.getCurrentFood());
 		return (enoughGold && enoughFood && state.desiredPeasantNumber() > state
-				.getPeasants().size());
+				.getPeasantCount()) ? 0 : UNBOUND;
 	}
 
 	@Override
@@ -49,10 +52,18 @@ public class ProductionStripsAction implements StripsAction {
 		return 1;
 	}
 
+	/**
+	 * @return The town hall, which is busy while it builds the peasant
+	 */
 	@Override
 	public List<Integer> getPeasantIdsForAction(GameState gameState) {
 		List<Integer> list = new ArrayList<Integer>();
 		list.add(gameState.getTownHallID());
 		return list;
 	}
+
+	@Override
+	public String toString() {
+		return "BuildPeasant()";
+	}
 }
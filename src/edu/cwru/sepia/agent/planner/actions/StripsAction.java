@@ -12,6 +12,25 @@ import edu.cwru.sepia.agent.planner.GameState;
  */
 public interface StripsAction {
 
+	/**
+	 * What bind returns when the preconditions are not met.
+	 */
+	public static final long UNBOUND = -1;
+
+	/**
+	 * Checks the preconditions and picks the peasants that do the action, in
+	 * one pass over the peasants that allocates nothing. The peasants are
+	 * returned as a bit set of their slots in the state, bit i standing for
+	 * GameState.getPeasantInSlot(i), which GameState.applyAction takes back
+	 * so that successors do not look for the peasants again.
+	 *
+	 * @param state
+	 *            GameState to bind the action to
+	 * @return The slots of the peasants that do the action, 0 for an action
+	 *         without peasants, or UNBOUND if the preconditions are not met
+	 */
+	public long bind(GameState state);
+
 	/**
 	 * Returns true if the provided GameState meets all of the necessary
 	 * conditions for this action to successfully execute.
@@ -28,7 +47,9 @@ public interface StripsAction {
 	 *            GameState to check if action is applicable
 	 * @return true if apply can be called, false otherwise
 	 */
-	public boolean preconditionsMet(GameState state);
+	public default boolean preconditionsMet(GameState state) {
+		return bind(state) != UNBOUND;
+	}
 
 	/**
 	 * Applies the action instance to the given GameState producing a new
@@ -76,11 +97,14 @@ public interface StripsAction {
 	 * 
 	 * @param gameState
 	 *            the state from which to extract IDs.
-	 * @return a List containing peasant IDs
+	 * @return a List containing peasant IDs, empty if the preconditions are
+	 *         not met
 	 */
-	public List<Integer> getPeasantIdsForAction(GameState gameState);
+	public default List<Integer> getPeasantIdsForAction(GameState gameState) {
+		return gameState.getPeasantIds(bind(gameState));
+	}
 
 	public enum ActionType {
-		MOVE, GATHER, DEPOSIT, BUILD_PEASANT;
+		MOVE, GATHER, DEPOSIT, BUILD_PEASANT, HARVEST_CYCLE;
 	}
 }
@@ -0,0 +1,88 @@
+package edu.cwru.sepia.agent.planner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.cwru.sepia.environment.model.state.ResourceType;
+
+public class HdaStarSearchTest {
+
+	// Enough runs for a premature termination of the workers to show up
+	private static final int RUNS = 200;
+
+	/**
+	 * A 16 by 16 map with the town hall in the corner, two gold mines and two
+	 * trees at different distances and a single peasant that may build more.
+	 */
+	private static GameState startState() {
+		PeasantState peasant = new PeasantState(1, 0, null, new Position(1, 1));
+		List<ResourceState> gold = Arrays.asList(new ResourceState(
+				new Position(0, 6), ResourceType.GOLD, 300, 2),
+				new ResourceState(new Position(9, 9), ResourceType.GOLD, 5000,
+						3));
+		List<ResourceState> trees = Arrays.asList(new ResourceState(
+				new Position(5, 0), ResourceType.WOOD, 200, 4),
+				new ResourceState(new Position(12, 3), ResourceType.WOOD, 5000,
+						5));
+		return new GameState(0, 700, 500, true, Collections.singletonMap(1,
+				peasant), trees, gold, new Position(0, 0), 0, 0, null, 0, 16,
+				16, null, 6);
+	}
+
+	/**
+	 * The cost of the plan of the serial A* search.
+	 */
+	private static double serialCost(GameState start) {
+		OpenList openList = new IndexedOpenList(TieBreaker.HIGH_G);
+		Set<GameState> closedList = new HashSet<GameState>();
+		openList.add(start);
+		while (!openList.isEmpty()) {
+			GameState current = openList.poll();
+			if (current.isGoal()) {
+				return current.getCost();
+			}
+			closedList.add(current);
+			for (GameState child : current.generateChildren()) {
+				if (!closedList.contains(child)) {
+					openList.add(child);
+				}
+			}
+		}
+		throw new AssertionError("The serial search found no plan");
+	}
+
+	private static void assertMatchesSerialSearch(int threads) {
+		double expected = serialCost(startState());
+		for (int run = 0; run < RUNS; run++) {
+			HdaStarSearch search = new HdaStarSearch(threads,
+					() -> new IndexedOpenList(TieBreaker.HIGH_G),
+					TieBreaker.HIGH_G);
+			GameState goal = search.search(startState());
+			assertNotNull("No plan in run " + run, goal);
+			assertEquals("Plan cost in run " + run, expected, goal.getCost(), 0);
+		}
+	}
+
+	@Test
+	public void twoWorkersFindTheSerialPlanCost() {
+		assertMatchesSerialSearch(2);
+	}
+
+	@Test
+	public void eightWorkersFindTheSerialPlanCost() {
+		assertMatchesSerialSearch(8);
+	}
+
+	@Test
+	public void sixteenWorkersFindTheSerialPlanCost() {
+		assertMatchesSerialSearch(16);
+	}
+}
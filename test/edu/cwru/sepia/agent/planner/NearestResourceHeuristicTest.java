@@ -0,0 +1,55 @@
+package edu.cwru.sepia.agent.planner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.cwru.sepia.environment.model.state.ResourceType;
+
+public class NearestResourceHeuristicTest {
+
+	/**
+	 * A 10 by 10 map with the town hall in the corner, a gold mine five steps
+	 * away, a tree four steps away and a single empty handed peasant that has
+	 * to bring in 1000 gold and 400 wood. That takes 10 round trips of 12 to
+	 * the mine and 4 of 10 to the tree, 160 in all.
+	 */
+	private static GameState startState(boolean buildPeasants) {
+		PeasantState peasant = new PeasantState(1, 0, null, new Position(1, 1));
+		List<ResourceState> gold = Arrays.asList(new ResourceState(
+				new Position(0, 5), ResourceType.GOLD, 5000, 2));
+		List<ResourceState> trees = Arrays.asList(new ResourceState(
+				new Position(4, 0), ResourceType.WOOD, 5000, 3));
+		return new GameState(0, 1000, 400, buildPeasants,
+				Collections.singletonMap(1, peasant), trees, gold,
+				new Position(0, 0), 0, 0, null, 0, 10, 10, null, 4);
+	}
+
+	@Test
+	public void estimateOfASinglePeasantIsTheRoundTrips() {
+		assertEquals(160.0,
+				new NearestResourceHeuristic().estimate(startState(false)), 0);
+	}
+
+	@Test
+	public void shareOfEachPeasantIsRoundedUp() {
+		// Three peasants split the 160 to 53 1/3 each
+		GameState state = startState(true);
+		assertEquals(3, state.desiredPeasantNumber());
+		assertEquals(54.0, new NearestResourceHeuristic().estimate(state), 0);
+	}
+
+	@Test
+	public void estimatesOfSuccessorsAreWholeNumbers() {
+		// The bucket open lists reject states with a fractional f
+		Heuristic heuristic = new NearestResourceHeuristic();
+		for (GameState child : startState(true).generateChildren()) {
+			double estimate = heuristic.estimate(child);
+			assertEquals(Math.rint(estimate), estimate, 0);
+		}
+	}
+}